@@ -1,6 +1,7 @@
 package com.veeva.vault.custom.actions.pmf;
 
 import com.veeva.vault.custom.udc.ErrorType;
+import com.veeva.vault.custom.udc.QueryUtil;
 import com.veeva.vault.sdk.api.action.RecordAction;
 import com.veeva.vault.sdk.api.action.RecordActionContext;
 import com.veeva.vault.sdk.api.action.RecordActionInfo;
@@ -9,7 +10,6 @@ import com.veeva.vault.sdk.api.core.*;
 import com.veeva.vault.sdk.api.data.Record;
 import com.veeva.vault.sdk.api.data.RecordService;
 import com.veeva.vault.sdk.api.query.QueryResponse;
-import com.veeva.vault.sdk.api.query.QueryService;
 
 /**
  * This record action sets the "Has Proposed Costs" (has_proposed_costs__c) field for a PMF.
@@ -28,7 +28,6 @@ public class HasProposedCosts implements RecordAction {
     public void execute(RecordActionContext recordActionContext) {
 
       RecordService recordService = ServiceLocator.locate(RecordService.class);
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
       LogService logService = ServiceLocator.locate(LogService.class);
 
       Record record = recordActionContext.getRecords().get(0);
@@ -42,7 +41,7 @@ public class HasProposedCosts implements RecordAction {
 
       logService.debug(query);
 
-      QueryResponse queryResponse = queryService.query(query);
+      QueryResponse queryResponse = QueryUtil.queryLegacy(query);
 
       boolean hasProposedCosts = queryResponse.streamResults().count() > 0;
 
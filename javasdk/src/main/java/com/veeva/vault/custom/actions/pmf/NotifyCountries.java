@@ -1,6 +1,7 @@
 package com.veeva.vault.custom.actions.pmf;
 
 import com.veeva.vault.custom.udc.PMF;
+import com.veeva.vault.custom.udc.QueryUtil;
 import com.veeva.vault.custom.udc.Util;
 import com.veeva.vault.sdk.api.action.RecordAction;
 import com.veeva.vault.sdk.api.action.RecordActionContext;
@@ -17,7 +18,6 @@ import com.veeva.vault.sdk.api.notification.NotificationService;
 import com.veeva.vault.sdk.api.notification.NotificationTemplate;
 import com.veeva.vault.sdk.api.query.QueryResponse;
 import com.veeva.vault.sdk.api.query.QueryResult;
-import com.veeva.vault.sdk.api.query.QueryService;
 
 import java.util.Iterator;
 import java.util.List;
@@ -36,7 +36,6 @@ public class NotifyCountries implements RecordAction {
     public void execute(RecordActionContext recordActionContext) {
 
       RecordService recordService = ServiceLocator.locate(RecordService.class);
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
       NotificationService notificationService = ServiceLocator.locate(NotificationService.class);
       LogService logService = ServiceLocator.locate(LogService.class);
 
@@ -46,7 +45,7 @@ public class NotifyCountries implements RecordAction {
       String pmfId = recordActionContext.getRecords().get(0).getValue("id", ValueType.STRING);
       String pmfNumber = recordActionContext.getRecords().get(0).getValue("name__v", ValueType.STRING);
 
-      queryResponse = queryService.query(
+      queryResponse = QueryUtil.queryLegacy(
         "select id, country__c, country__cr.name__v, notification_sent__c from pmf_impacted_country__c" +
         " where pmf__c = '"+pmfId+"'"
       );
@@ -69,11 +68,10 @@ public class NotifyCountries implements RecordAction {
 
       if (countriesToNotify.size() > 0) {
 
-        String regulatoryRole = Util.getRecordID("application_role__v", "api_name__v", "regulatory__c");
+        String regulatoryRole = Util.getRoleId("regulatory__c");
         List<String> docTypeGroups = VaultCollections.newList();
-        // TODO: reduce this to a single query...
-        docTypeGroups.add(Util.getRecordID("doc_type_group__v", "name__v", "Artwork"));
-        docTypeGroups.add(Util.getRecordID("doc_type_group__v", "name__v", "All Documents"));
+        docTypeGroups.add(Util.getDocTypeGroupId("Artwork"));
+        docTypeGroups.add(Util.getDocTypeGroupId("All Documents"));
 
         StringBuilder query = new StringBuilder();
         query
@@ -82,7 +80,7 @@ public class NotifyCountries implements RecordAction {
           .append(" and country__c contains ").append(Util.vqlContains(countriesToNotify))
           .append(" and document_type_group__c contains ").append(Util.vqlContains(docTypeGroups));
 
-        queryResponse = queryService.query(query.toString());
+        queryResponse = QueryUtil.queryLegacy(query.toString());
         queryResultIterator = queryResponse.streamResults().iterator();
 
         Set<String> userIds = VaultCollections.newSet();
@@ -113,7 +111,7 @@ public class NotifyCountries implements RecordAction {
 
           if (countriesActuallyNotified.size() > 0) {
 
-          queryResponse = queryService.query(
+          queryResponse = QueryUtil.queryLegacy(
             "select id from pmf_impacted_country__c" +
               " where pmf__c = '" + pmfId + "'" +
               "   and country__c contains " + Util.vqlContains(countriesActuallyNotified)
@@ -1,10 +1,8 @@
 package com.veeva.vault.custom.actions.pmf;
 
-import com.veeva.vault.custom.udc.ErrorType;
-import com.veeva.vault.custom.udc.PMF;
+import com.veeva.vault.custom.udc.PmfWriteBuffer;
 import com.veeva.vault.sdk.api.core.*;
 import com.veeva.vault.sdk.api.data.Record;
-import com.veeva.vault.sdk.api.data.RecordService;
 import com.veeva.vault.sdk.api.workflow.*;
 import com.veeva.vault.sdk.api.job.JobParameters;
 import com.veeva.vault.sdk.api.job.JobService;
@@ -67,23 +65,12 @@ public class PlantReviewerTask implements RecordWorkflowAction {
 
     private void setPlantReviewerField(RecordWorkflowActionContext context) {
 
-      RecordService recordService = ServiceLocator.locate(RecordService.class);
-
       String pmfId = context.getRecords().get(0).getValue("id", ValueType.STRING);
       WorkflowTaskInstance taskInstance = context.getTaskContext().getTaskChanges().get(0).getNew();
       String plantReviewerUserId = taskInstance.getAssigneeId();
 
-      Record pmfRecord = recordService.newRecordWithId(PMF.ObjectName, pmfId );
-      pmfRecord.setValue("plant_reviewer__c", plantReviewerUserId);
-
-      recordService.batchSaveRecords(VaultCollections.asList(pmfRecord))
-        .onErrors(batchOperationErrors -> {
-          batchOperationErrors.stream().findFirst().ifPresent(error -> {
-            String errMsg = error.getError().getMessage();
-            throw new RollbackException(ErrorType.OPERATION_FAILED, errMsg);
-          });
-        })
-        .execute();
+      // saved immediately, or with any other pending PMF updates if the caller is buffering them
+      PmfWriteBuffer.setValue(pmfId, "plant_reviewer__c", plantReviewerUserId);
 
     }
 
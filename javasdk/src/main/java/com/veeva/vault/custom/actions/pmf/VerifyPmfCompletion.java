@@ -1,6 +1,7 @@
 package com.veeva.vault.custom.actions.pmf;
 
 import com.veeva.vault.custom.udc.ErrorType;
+import com.veeva.vault.custom.udc.QueryUtil;
 import com.veeva.vault.sdk.api.action.RecordAction;
 import com.veeva.vault.sdk.api.action.RecordActionContext;
 import com.veeva.vault.sdk.api.action.RecordActionInfo;
@@ -40,11 +41,10 @@ public class VerifyPmfCompletion implements RecordAction {
 
     private void verifySafetyVariationRequirements(Record pmfRecord) {
 
-        QueryService queryService = ServiceLocator.locate(QueryService.class);
 
         String pmfId = pmfRecord.getValue("id", ValueType.STRING);
 
-        QueryResponse queryResponse = queryService.query(
+        QueryResponse queryResponse = QueryUtil.queryLegacy(
           "select id from pmf_global_code__c where pmf__c = '"+pmfId+"' and actual_implementation_date__c = null"
         );
 
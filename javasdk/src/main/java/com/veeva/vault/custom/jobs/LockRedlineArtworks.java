@@ -1,34 +1,40 @@
 package com.veeva.vault.custom.jobs;
 
-import com.veeva.vault.custom.udc.VaultAPI;
-import com.veeva.vault.sdk.api.core.ServiceLocator;
+import com.veeva.vault.custom.udc.DocumentUserActionBatch;
+import com.veeva.vault.custom.udc.JobTaskErrors;
+import com.veeva.vault.custom.udc.VqlQuery;
 import com.veeva.vault.sdk.api.core.ValueType;
 import com.veeva.vault.sdk.api.core.VaultCollections;
-import com.veeva.vault.sdk.api.data.RecordService;
 import com.veeva.vault.sdk.api.job.*;
-import com.veeva.vault.sdk.api.query.QueryResponse;
-import com.veeva.vault.sdk.api.query.QueryResult;
-import com.veeva.vault.sdk.api.query.QueryService;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
   /*
    * This Job Process puts a PMF's Redline Artwork Documents into the "Locked" status.
    *
-   * Chunk Size for this job MUST be set to 1, so that an exception on one Document won't
-   * terminate the Job completely.
+   * init() reads the lifecycle and state of all of the PMF's Redline Artwork documents with one query,
+   * and creates job items only for documents that are not already locked.  Each task locks all of its
+   * documents with as few bulk user action requests as possible (see DocumentUserActionBatch).
+   *
+   * Failures are recorded per Document (see JobTaskErrors), so that an error on one Document won't
+   * terminate the Job or the other Documents in the same task.
    */
-  
+
   @JobInfo(adminConfigurable = true)
   public class LockRedlineArtworks implements Job {
 
-    private static final String REDLINE_LOCK_ACTION_LABEL = "Lock";
-    private static final String REDLINE_STATUS_LOCKED = "Locked";
+    private static final String REDLINE_LOCK_ACTION = "lock__c";
+    private static final String REDLINE_STATE_LOCKED = "locked__c";
+
+    private static final String REDLINE_VERSION_ID = "redlineVersionId";
+    private static final String REDLINE_LIFECYCLE = "redlineLifecycle";
+    private static final String REDLINE_STATE = "redlineState";
 
     public JobInputSupplier init(JobInitContext jobInitContext) {
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
       JobLogger logger = jobInitContext.getJobLogger();
 
       String pmfRecordId = jobInitContext.getJobParameter("pmfRecordId", JobParamValueType.STRING);
@@ -36,66 +42,71 @@ import java.util.List;
 
       List<JobItem> jobItems = VaultCollections.newList();
 
-      String query =
-        "select redline_artwork_document__c " +
-        "  from pmf_redline_artwork_document__c " +
-        " where pmf__c = '"+pmfRecordId+"'";
-      logger.log("Executing VQL query: " + query);
-
-      QueryResponse queryResponse = queryService.query(query);
-      logger.log("VQL result count: " + queryResponse.getResultCount());
+      Set<String> redlineVersionIds = VaultCollections.newSet();
+      Iterator<QueryExecutionResult> iter = VqlQuery.select("redline_artwork_document__c")
+        .from("pmf_redline_artwork_document__c")
+        .whereEquals("pmf__c", pmfRecordId)
+        .execute();
+      while (iter.hasNext()) {
+        redlineVersionIds.add(iter.next().getValue("redline_artwork_document__c", ValueType.STRING));
+      }
+      logger.log("Found " + redlineVersionIds.size() + " Redline Artwork document(s)");
 
-      Iterator<QueryResult> iter = queryResponse.streamResults().iterator();
+      // only the latest version of a document is returned, and user actions apply only to the latest version
+      Set<String> latestVersionIds = VaultCollections.newSet();
+      iter = VqlQuery.select("version_id", "toName(lifecycle__v)", "toName(status__v)")
+        .from("documents")
+        .whereIn("version_id", redlineVersionIds)
+        .execute();
 
       while (iter.hasNext()) {
-        QueryResult qr = iter.next();
-        String redlineVersionId = qr.getValue("redline_artwork_document__c", ValueType.STRING);
+        QueryExecutionResult qr = iter.next();
+        String redlineVersionId = qr.getValue("version_id", ValueType.STRING);
+        String state = qr.getValue("status__v", ValueType.PICKLIST_VALUES).get(0);
+        latestVersionIds.add(redlineVersionId);
+        if (state.equals(REDLINE_STATE_LOCKED)) {
+          logger.log("Redline Artwork Document '"+redlineVersionId+"' is already locked");
+          continue;
+        }
         JobItem jobItem = jobInitContext.newJobItem();
-        jobItem.setValue("redlineVersionId", redlineVersionId);
-        jobItem.setValue("pmfRecordId",pmfRecordId);
+        jobItem.setValue(REDLINE_VERSION_ID, redlineVersionId);
+        jobItem.setValue(REDLINE_LIFECYCLE, qr.getValue("lifecycle__v", ValueType.PICKLIST_VALUES).get(0));
+        jobItem.setValue(REDLINE_STATE, state);
         jobItems.add(jobItem);
         logger.log("Added job item for redline artwork version " + redlineVersionId);
       }
 
+      for (String redlineVersionId : redlineVersionIds) {
+        if (!latestVersionIds.contains(redlineVersionId)) {
+          logger.log("Redline Artwork Document '"+redlineVersionId+"' is not the latest version; not processed");
+        }
+      }
+
       return jobInitContext.newJobInput(jobItems);
     }
 
     public void process(JobProcessContext jobProcessContext) {
-      RecordService recordService = ServiceLocator.locate(RecordService.class);
       JobLogger logger = jobProcessContext.getJobLogger();
 
       List<JobItem> items = jobProcessContext.getCurrentTask().getItems();
 
-      String error = null;
+      JobTaskErrors errors = new JobTaskErrors(logger);
+      DocumentUserActionBatch lockActions = new DocumentUserActionBatch(
+        "pmf_local_connection__c", REDLINE_LOCK_ACTION, logger
+      );
 
       for (JobItem jobItem : items) {
-        String redlineVersionId = jobItem.getValue("redlineVersionId", JobValueType.STRING);
-        logger.log("Processing redline document " + redlineVersionId);
-        if (!isAlreadyLocked(redlineVersionId)) {
-          VaultAPI vaultApi = new VaultAPI("pmf_local_connection__c", logger);
-          vaultApi.initiateDocumentUserAction(redlineVersionId, "lock__c");
-          if (vaultApi.failed()) {
-            error = "Failed to move redline document redlineVersionId to the Locked status due to: " +
-              vaultApi.getErrorMessage();
-          } else {
-            logger.log("Successfully locked Redline Artwork document " + redlineVersionId);
-          }
-        } else {
-          logger.log("Redline Artwork Document '"+redlineVersionId+"' is already locked");
-        }
+        String redlineVersionId = jobItem.getValue(REDLINE_VERSION_ID, JobValueType.STRING);
+        lockActions.add(
+          redlineVersionId,
+          jobItem.getValue(REDLINE_LIFECYCLE, JobValueType.STRING),
+          jobItem.getValue(REDLINE_STATE, JobValueType.STRING)
+        );
       }
 
-       JobTask task = jobProcessContext.getCurrentTask();
-       TaskOutput taskOutput = task.getTaskOutput();
-
-       if (error == null) {
-         taskOutput.setState(TaskState.SUCCESS);
-         logger.log("Task successful");
-       } else {
-          taskOutput.setState(TaskState.ERRORS_ENCOUNTERED);
-          taskOutput.setValue("errorMessage", error);
-           logger.log("Task unsuccessful");
-       }
+      lockActions.execute(errors);
+
+      errors.setTaskOutput(jobProcessContext.getCurrentTask().getTaskOutput());
     }
 
     public void completeWithSuccess(JobCompletionContext jobCompletionContext) {
@@ -109,24 +120,7 @@ import java.util.List;
        JobLogger logger = jobCompletionContext.getJobLogger();
        logger.log("completeWithError: "+result.getNumberFailedTasks()+" tasks failed out of " + result.getNumberTasks());
 
-       List<JobTask> tasks = jobCompletionContext.getTasks();
-       for (JobTask task : tasks) {
-         TaskOutput taskOutput = task.getTaskOutput();
-         if (TaskState.ERRORS_ENCOUNTERED.equals(taskOutput.getState())) {
-           logger.log(task.getTaskId() + " failed with error message " + taskOutput.getValue("errorMessage", JobValueType.STRING));
-         }
-       }
-    }
-
-    private boolean isAlreadyLocked(String redlineVersionId) {
-
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
-
-      QueryResponse queryResponse = queryService.query(
-        "select id from documents where version_id = '"+redlineVersionId+"' and status__v = '"+REDLINE_STATUS_LOCKED+"'"
-      );
-
-      return queryResponse.getResultCount() > 0;
+       JobTaskErrors.logTaskErrors(jobCompletionContext);
     }
 
-  }
\ No newline at end of file
+  }
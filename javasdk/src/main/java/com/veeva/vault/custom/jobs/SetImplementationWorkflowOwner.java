@@ -1,5 +1,6 @@
 package com.veeva.vault.custom.jobs;
 
+import com.veeva.vault.custom.udc.JobTaskErrors;
 import com.veeva.vault.custom.udc.VaultAPI;
 import com.veeva.vault.sdk.api.core.VaultCollections;
 import com.veeva.vault.sdk.api.job.*;
@@ -44,7 +45,7 @@ public class SetImplementationWorkflowOwner implements Job {
 
       List<JobItem> jobItems = jobProcessContext.getCurrentTask().getItems();
 
-      String errors = null;
+      JobTaskErrors errors = new JobTaskErrors(logger);
 
       for (JobItem jobItem : jobItems) {
 
@@ -52,35 +53,24 @@ public class SetImplementationWorkflowOwner implements Job {
           String pmfRequestor = jobItem.getValue("pmfRequestor", JobValueType.STRING);
           String pmfNumber = jobItem.getValue("pmfNumber", JobValueType.STRING);
 
-          logger.log(
-            "Setting workflow owner for: workflowId: "+workflowId+"; pmfRequestor: "+pmfRequestor+"; pmfNumber: "+pmfNumber
-          );
+          String itemId = "workflowId " + workflowId;
+          errors.run(itemId, () -> {
 
-          VaultAPI vaultApi = new VaultAPI("pmf_local_connection__c");
-          vaultApi.replaceWorklfowOwner(workflowId, pmfRequestor);
+            logger.log(
+              "Setting workflow owner for: workflowId: "+workflowId+"; pmfRequestor: "+pmfRequestor+"; pmfNumber: "+pmfNumber
+            );
 
-          if (vaultApi.failed()) {
-            String errorType = vaultApi.getErrorType();
-            String errorMsg = vaultApi.getErrorMessage();
-            if (errors != null) {
-              errors += "\n";
+            VaultAPI vaultApi = new VaultAPI("pmf_local_connection__c");
+            vaultApi.replaceWorklfowOwner(workflowId, pmfRequestor);
+
+            if (vaultApi.failed()) {
+              errors.addError(itemId, "["+vaultApi.getErrorType()+"] " + vaultApi.getErrorMessage());
             }
-            errors += "Error for workflowId '"+workflowId+"': ["+errorType+"] " + errorMsg;
-          }
+          });
 
         }
 
-        JobTask task = jobProcessContext.getCurrentTask();
-        TaskOutput taskOutput = task.getTaskOutput();
-
-        if (errors == null) {
-            taskOutput.setState(TaskState.SUCCESS);
-            logger.log("Task successful");
-        } else {
-            taskOutput.setState(TaskState.ERRORS_ENCOUNTERED);
-            taskOutput.setValue("errors", errors);
-            logger.log("Task unsuccessful");
-        }
+        errors.setTaskOutput(jobProcessContext.getCurrentTask().getTaskOutput());
     }
 
     public void completeWithSuccess(JobCompletionContext jobCompletionContext) {
@@ -94,14 +84,6 @@ public class SetImplementationWorkflowOwner implements Job {
         JobLogger logger = jobCompletionContext.getJobLogger();
         logger.log("completeWithError: " + result.getNumberFailedTasks() + "tasks failed out of " + result.getNumberTasks());
 
-        List<JobTask> tasks = jobCompletionContext.getTasks();
-        for (JobTask task : tasks) {
-            TaskOutput taskOutput = task.getTaskOutput();
-            if (TaskState.ERRORS_ENCOUNTERED.equals(taskOutput.getState())) {
-                logger.log(task.getTaskId() + " failed with error message " +
-                  taskOutput.getValue("errors", JobValueType.STRING)
-                );
-            }
-        }
+        JobTaskErrors.logTaskErrors(jobCompletionContext);
     }
 }
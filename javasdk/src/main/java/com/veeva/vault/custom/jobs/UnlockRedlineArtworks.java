@@ -1,15 +1,12 @@
 package com.veeva.vault.custom.jobs;
 
-import com.veeva.vault.custom.udc.Util;
-import com.veeva.vault.custom.udc.VaultAPI;
-import com.veeva.vault.sdk.api.core.ServiceLocator;
-import com.veeva.vault.sdk.api.core.StringUtils;
+import com.veeva.vault.custom.udc.DocumentUserActionBatch;
+import com.veeva.vault.custom.udc.JobTaskErrors;
+import com.veeva.vault.custom.udc.VqlQuery;
 import com.veeva.vault.sdk.api.core.ValueType;
 import com.veeva.vault.sdk.api.core.VaultCollections;
 import com.veeva.vault.sdk.api.job.*;
-import com.veeva.vault.sdk.api.query.QueryResponse;
-import com.veeva.vault.sdk.api.query.QueryResult;
-import com.veeva.vault.sdk.api.query.QueryService;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
 
 import java.util.Iterator;
 import java.util.List;
@@ -26,14 +23,12 @@ public class UnlockRedlineArtworks implements Job {
     public static final String JOB_PARAM_PMF_RECORD_ID = "jobParamPmfId";
 
     private static final String REDLINE_VERSION_ID = "redlineVersionId";
-    private static final String TASK_ERROR_MSG = "taskErrorMsg";
+    private static final String REDLINE_LIFECYCLE = "redlineLifecycle";
 
-    public JobInputSupplier init(JobInitContext jobInitContext) {
+    private static final String REDLINE_UNLOCK_ACTION = "open__c";
+    private static final String REDLINE_STATE_LOCKED = "locked__c";
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
-      QueryResponse queryResponse;
-      Iterator<QueryResult> queryResultIterator;
-      String query;
+    public JobInputSupplier init(JobInitContext jobInitContext) {
 
       JobLogger logger = jobInitContext.getJobLogger();
 
@@ -43,19 +38,13 @@ public class UnlockRedlineArtworks implements Job {
 
       logger.log("Processing locked Redline Artwork documents for PMF " + pmfRecordId);
 
-      query =
-        "select redline_artwork_document__c" +
-        "  from pmf_redline_artwork_document__c" +
-        " where pmf__c = '"+pmfRecordId+"'";
-      logger.log(StringUtils.replaceAll(query, "\n", ""));
-      queryResponse = queryService.query(query);
-      queryResultIterator = queryResponse.streamResults().iterator();
       List<String> redlineDocVersionIds = VaultCollections.newList();
-
-      while (queryResultIterator.hasNext()) {
-        QueryResult queryResult = queryResultIterator.next();
-        String redlineDocVersionId = queryResult.getValue("redline_artwork_document__c", ValueType.STRING);
-        redlineDocVersionIds.add(redlineDocVersionId);
+      Iterator<QueryExecutionResult> iter = VqlQuery.select("redline_artwork_document__c")
+        .from("pmf_redline_artwork_document__c")
+        .whereEquals("pmf__c", pmfRecordId)
+        .execute();
+      while (iter.hasNext()) {
+        redlineDocVersionIds.add(iter.next().getValue("redline_artwork_document__c", ValueType.STRING));
       }
 
       logger.log("Found "+redlineDocVersionIds.size()+" Redline Artwork document(s)");
@@ -63,20 +52,18 @@ public class UnlockRedlineArtworks implements Job {
       if (redlineDocVersionIds.size() > 0) {
 
         logger.log("Looking for locked Redline Artwork documents...");
-        query =
-          "select version_id" +
-          "  from documents " +
-          " where version_id contains " + Util.vqlContains(redlineDocVersionIds) +
-          "   and toName(status__v) = 'locked__c'";
-        logger.log(StringUtils.replaceAll(query, "\n", ""));
-        queryResponse = queryService.query(query);
-        queryResultIterator = queryResponse.streamResults().iterator();
-
-        while (queryResultIterator.hasNext()) {
-          QueryResult queryResult = queryResultIterator.next();
+        iter = VqlQuery.select("version_id", "toName(lifecycle__v)")
+          .from("documents")
+          .whereIn("version_id", redlineDocVersionIds)
+          .whereEquals("toName(status__v)", REDLINE_STATE_LOCKED)
+          .execute();
+
+        while (iter.hasNext()) {
+          QueryExecutionResult queryResult = iter.next();
           String redlineDocVersionId = queryResult.getValue("version_id", ValueType.STRING);
           JobItem jobItem = jobInitContext.newJobItem();
           jobItem.setValue(REDLINE_VERSION_ID, redlineDocVersionId);
+          jobItem.setValue(REDLINE_LIFECYCLE, queryResult.getValue("lifecycle__v", ValueType.PICKLIST_VALUES).get(0));
           jobItems.add(jobItem);
           logger.log("Added locked redline document "+redlineDocVersionId+" to task list");
         }
@@ -96,32 +83,23 @@ public class UnlockRedlineArtworks implements Job {
 
       List<JobItem> jobItems = jobProcessContext.getCurrentTask().getItems();
 
-      VaultAPI vaultAPI = new VaultAPI("pmf_local_connection__c", logger);
+      JobTaskErrors errors = new JobTaskErrors(logger);
 
-      int errorCount = 0;
+      // all of the task's documents are unlocked with as few bulk user action requests as possible
+      DocumentUserActionBatch unlockActions = new DocumentUserActionBatch(
+        "pmf_local_connection__c", REDLINE_UNLOCK_ACTION, logger
+      );
 
       for (JobItem jobItem : jobItems) {
         String redlineDocVersionId = jobItem.getValue(REDLINE_VERSION_ID, JobValueType.STRING);
-        logger.log("Processing locked redline document " + redlineDocVersionId);
-        vaultAPI.initiateDocumentUserAction(redlineDocVersionId, "open__c");
-        if (vaultAPI.failed()) {
-          String errType = vaultAPI.getErrorType();
-          String errMsg = vaultAPI.getErrorMessage();;
-          logger.log("Failed to unlock redline "+redlineDocVersionId+" due to: ["+errType+"] "+errMsg);
-          errorCount++;
-        }
+        unlockActions.add(
+          redlineDocVersionId, jobItem.getValue(REDLINE_LIFECYCLE, JobValueType.STRING), REDLINE_STATE_LOCKED
+        );
       }
 
-      JobTask task = jobProcessContext.getCurrentTask();
-      TaskOutput taskOutput = task.getTaskOutput();
+      unlockActions.execute(errors);
 
-      if (errorCount == 0) {
-        taskOutput.setState(TaskState.SUCCESS);
-        logger.log("Task successful");
-      } else {
-        taskOutput.setState(TaskState.ERRORS_ENCOUNTERED);
-        logger.log("Errors occurred");
-      }
+      errors.setTaskOutput(jobProcessContext.getCurrentTask().getTaskOutput());
 
     }
 
@@ -134,6 +112,7 @@ public class UnlockRedlineArtworks implements Job {
       JobResult result = jobCompletionContext.getJobResult();
       JobLogger logger = jobCompletionContext.getJobLogger();
       logger.log("completeWithError: "+result.getNumberFailedTasks()+"tasks failed out of "+result.getNumberTasks());
+      JobTaskErrors.logTaskErrors(jobCompletionContext);
 
     }
 }
@@ -4,29 +4,35 @@ import com.veeva.vault.custom.udc.*;
 import com.veeva.vault.sdk.api.connection.ConnectionContext;
 import com.veeva.vault.sdk.api.connection.ConnectionService;
 import com.veeva.vault.sdk.api.connection.ConnectionUser;
-import com.veeva.vault.sdk.api.core.RollbackException;
 import com.veeva.vault.sdk.api.core.ServiceLocator;
 import com.veeva.vault.sdk.api.core.ValueType;
 import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.data.BatchOperationError;
 import com.veeva.vault.sdk.api.data.Record;
 import com.veeva.vault.sdk.api.data.RecordService;
 import com.veeva.vault.sdk.api.document.*;
 import com.veeva.vault.sdk.api.job.*;
-import com.veeva.vault.sdk.api.query.QueryResponse;
-import com.veeva.vault.sdk.api.query.QueryResult;
-import com.veeva.vault.sdk.api.query.QueryService;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
 
 import java.math.BigDecimal;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /*
   This Job Process creates new Draft versions of the PMF's Impacted Artwork documents.
 
-  An exception can occur when saving the new version (migrateDocumentVersion()),
-  therefore the Chunk Size for this job MUST be set to 1, so that an exception on one
-  Document won't terminate the Job completely.
+  init() reads the state of all of the PMF's Impacted Artwork documents with a few set-based
+  queries, and carries that state in the job items, so that process() can decide how to handle
+  each document without querying the document again.  The state is read when the job starts;
+  the steady-state check made before up-versioning a document is repeated in process(), and the
+  latest version of each document that fails it is read again (see refreshLatestVersions()).
+
+  Each task builds the new Draft versions for all of its documents, and creates them with a
+  single call to migrateDocumentVersions(); the documents' results are reported individually.
+  Each Document is processed in isolation (see JobTaskErrors), so that an exception on one
+  Document won't terminate the Job or the other Documents in the same task.
  */
 
 @JobInfo(adminConfigurable = true)
@@ -35,32 +41,122 @@ import java.util.Set;
     static final String ARTWORK_STATE_APPROVED_FOR_USE = "approved_for_distribution__c";
     static final String ARTWORK_STATE_DRAFT = "draft__c";
 
+    // job item values
+    static final String ITEM_PMF_RECORD_ID = "pmfRecordId";
+    static final String ITEM_ART_DOC_VERSION_ID = "artDocVersionId";  // the Impacted Artwork version
+    static final String ITEM_ART_DOC_RECORD_ID = "artDocRecordId";  // the PMF Artwork Document record
+    static final String ITEM_IMPACTED_STATE = "impactedState";  // state of the Impacted Artwork version
+    static final String ITEM_DOCUMENT_NUMBER = "documentNumber";
+    static final String ITEM_CURRENT_VERSION_ID = "currentVersionId";  // latest version of the document
+    static final String ITEM_CURRENT_STATE = "currentState";
+    static final String ITEM_CURRENT_PMF = "currentPmf";
+    static final String ITEM_CURRENT_ATTACHED = "currentAttached";  // latest version is already attached to a PMF
+    static final String ITEM_REDLINE_URL = "redlineUrl";
+
     public JobInputSupplier init(JobInitContext jobInitContext) {
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
       JobLogger logger = jobInitContext.getJobLogger();
 
       String pmfRecordId = jobInitContext.getJobParameter("pmfRecordId", JobParamValueType.STRING);
       logger.log("Processing PMF " + pmfRecordId);
 
-      List<JobItem> jobItems = VaultCollections.newList();
+      // the PMF's Impacted Artwork versions, keyed by PMF Artwork Document record ID
+      Map<String, String> artDocVersionIds = VaultCollections.newMap();
+      Iterator<QueryExecutionResult> iter = VqlQuery.select("id", "artwork_document__c")
+        .from("pmf_artwork_document__c")
+        .whereEquals("pmf__c", pmfRecordId)
+        .execute();
+      while (iter.hasNext()) {
+        QueryExecutionResult qr = iter.next();
+        artDocVersionIds.put(
+          qr.getValue("id", ValueType.STRING), qr.getValue("artwork_document__c", ValueType.STRING)
+        );
+      }
+      logger.log("Found " + artDocVersionIds.size() + " Impacted Artwork document(s)");
+
+      Set<String> versionIds = VaultCollections.newSet();
+      Set<String> docIds = VaultCollections.newSet();
+      for (String artDocVersionId : artDocVersionIds.values()) {
+        versionIds.add(artDocVersionId);
+        docIds.add(DocVersionIdParts.id(artDocVersionId));
+      }
 
-      String query = "select id, artwork_document__c from pmf_artwork_document__c where pmf__c = '"+pmfRecordId+"'";
-      logger.log("Executing VQL query: " + query);
+      // the state and document number of each Impacted Artwork version
+      Map<String, String> impactedStates = VaultCollections.newMap();
+      Map<String, String> documentNumbers = VaultCollections.newMap();
+      iter = VqlQuery.select("version_id", "toName(status__v)", "document_number__v")
+        .from("allversions documents")
+        .whereIn("version_id", versionIds)
+        .execute();
+      while (iter.hasNext()) {
+        QueryExecutionResult qr = iter.next();
+        String versionId = qr.getValue("version_id", ValueType.STRING);
+        impactedStates.put(versionId, qr.getValue("status__v", ValueType.PICKLIST_VALUES).get(0));
+        documentNumbers.put(versionId, qr.getValue("document_number__v", ValueType.STRING));
+      }
 
-      QueryResponse queryResponse = queryService.query(query);
-      logger.log("VQL result count: " + queryResponse.getResultCount());
+      // the latest version of each document, keyed by document ID
+      Map<String, QueryExecutionResult> currentVersions = VaultCollections.newMap();
+      iter = VqlQuery.select("version_id", "toName(status__v)", "pmf__c")
+        .from("documents")
+        .whereIn("id", docIds)
+        .execute();
+      while (iter.hasNext()) {
+        QueryExecutionResult qr = iter.next();
+        currentVersions.put(DocVersionIdParts.id(qr.getValue("version_id", ValueType.STRING)), qr);
+      }
 
-      Iterator<QueryResult> iter = queryResponse.streamResults().iterator();
+      // latest versions that are already attached to a PMF as an up-versioned artwork
+      Set<String> currentVersionIds = VaultCollections.newSet();
+      for (QueryExecutionResult qr : currentVersions.values()) {
+        currentVersionIds.add(qr.getValue("version_id", ValueType.STRING));
+      }
+      Set<String> attachedVersionIds = VaultCollections.newSet();
+      iter = VqlQuery.select("new_artwork_version__c")
+        .from("pmf_upversioned_artwork__c")
+        .whereIn("new_artwork_version__c", currentVersionIds)
+        .execute();
+      while (iter.hasNext()) {
+        attachedVersionIds.add(iter.next().getValue("new_artwork_version__c", ValueType.STRING));
+      }
 
+      // the PMF's Redline Artwork documents, keyed by PMF Artwork Document record ID
+      Map<String, String> redlineUrls = VaultCollections.newMap();
+      iter = VqlQuery.select("pmf_artwork_document_record_id__c", "redline_artwork_document__c")
+        .from("pmf_redline_artwork_document__c")
+        .whereEquals("pmf__c", pmfRecordId)
+        .execute();
       while (iter.hasNext()) {
-        QueryResult qr = iter.next();
-        String artDocVersionId = qr.getValue("artwork_document__c", ValueType.STRING);
-        String artDocRecordId = qr.getValue("id", ValueType.STRING);
+        QueryExecutionResult qr = iter.next();
+        redlineUrls.put(
+          qr.getValue("pmf_artwork_document_record_id__c", ValueType.STRING),
+          Util.getDocumentURL(qr.getValue("redline_artwork_document__c", ValueType.STRING))
+        );
+      }
+
+      List<JobItem> jobItems = VaultCollections.newList();
+
+      for (Map.Entry<String, String> entry : artDocVersionIds.entrySet()) {
+        String artDocRecordId = entry.getKey();
+        String artDocVersionId = entry.getValue();
+        QueryExecutionResult current = currentVersions.get(DocVersionIdParts.id(artDocVersionId));
+        if (current == null || !impactedStates.containsKey(artDocVersionId)) {
+          logger.log("Artwork document " + artDocVersionId + " was not found; not processed");
+          continue;
+        }
+        String currentVersionId = current.getValue("version_id", ValueType.STRING);
+
         JobItem jobItem = jobInitContext.newJobItem();
-        jobItem.setValue("artDocVersionId", artDocVersionId);
-        jobItem.setValue("artDocRecordId", artDocRecordId);
-        jobItem.setValue("pmfRecordId",pmfRecordId);
+        jobItem.setValue(ITEM_PMF_RECORD_ID, pmfRecordId);
+        jobItem.setValue(ITEM_ART_DOC_VERSION_ID, artDocVersionId);
+        jobItem.setValue(ITEM_ART_DOC_RECORD_ID, artDocRecordId);
+        jobItem.setValue(ITEM_IMPACTED_STATE, impactedStates.get(artDocVersionId));
+        setValueIfNotNull(jobItem, ITEM_DOCUMENT_NUMBER, documentNumbers.get(artDocVersionId));
+        jobItem.setValue(ITEM_CURRENT_VERSION_ID, currentVersionId);
+        jobItem.setValue(ITEM_CURRENT_STATE, current.getValue("status__v", ValueType.PICKLIST_VALUES).get(0));
+        setValueIfNotNull(jobItem, ITEM_CURRENT_PMF, Util.getFirst(current.getValue("pmf__c", ValueType.REFERENCES)));
+        jobItem.setValue(ITEM_CURRENT_ATTACHED, attachedVersionIds.contains(currentVersionId));
+        setValueIfNotNull(jobItem, ITEM_REDLINE_URL, redlineUrls.get(artDocRecordId));
         jobItems.add(jobItem);
         logger.log("Added job item for artwork version " + artDocVersionId);
       }
@@ -74,17 +170,63 @@ import java.util.Set;
 
       List<JobItem> items = jobProcessContext.getCurrentTask().getItems();
 
-      TaskOutput taskOutput = jobProcessContext.getCurrentTask().getTaskOutput();
+      JobTaskErrors errors = new JobTaskErrors(logger);
+
+      QueryMetrics.begin("UpVersionArtworks");
+      try {
+        List<Artwork> artworks = VaultCollections.newList();
+        List<String> upVersionIds = VaultCollections.newList();
+        for (JobItem jobItem : items) {
+          Artwork artwork = new Artwork(jobItem);
+          artworks.add(artwork);
+          if (artwork.isUpVersion()) {
+            upVersionIds.add(artwork.artDocVersionId);
+          }
+        }
+
+        // the field values to be copied to the new Draft versions, for all of the task's artworks at once
+        ArtworkFieldCopyPlan fieldCopyPlan = null;
+        Map<String, QueryExecutionResult> steadyStateVersions = VaultCollections.newMap();
+        if (upVersionIds.size() > 0) {
+          fieldCopyPlan = ArtworkFieldCopyPlan.get();
+          steadyStateVersions = getSteadyStateVersions(upVersionIds, fieldCopyPlan);
+        }
+
+        // documents that have received a new version since the job started
+        List<Artwork> changedArtworks = VaultCollections.newList();
+        for (Artwork artwork : artworks) {
+          if (artwork.isUpVersion() && !steadyStateVersions.containsKey(artwork.artDocVersionId)) {
+            changedArtworks.add(artwork);
+          }
+        }
+        refreshLatestVersions(changedArtworks);
 
-      for (JobItem jobItem : items) {
-        String pmfRecordId = jobItem.getValue("pmfRecordId", JobValueType.STRING);
-        String artDocVersionId = jobItem.getValue("artDocVersionId", JobValueType.STRING);
-        String artDocRecordId = jobItem.getValue("artDocRecordId", JobValueType.STRING);
-        processArtworkDocument(logger, pmfRecordId, artDocVersionId, artDocRecordId);
+        TaskBatch batch = new TaskBatch();
+
+        for (Artwork artwork : artworks) {
+          ArtworkFieldCopyPlan plan = fieldCopyPlan;
+          QueryExecutionResult steadyStateVersion = steadyStateVersions.get(artwork.artDocVersionId);
+          errors.run(
+            artwork.artDocVersionId, () -> processArtworkDocument(logger, artwork, plan, steadyStateVersion, batch)
+          );
+        }
+
+        // create all of the task's new Draft versions with one call, then attach them all to the PMF with one save,
+        // and start the 'PMF Draft' workflow on each new Draft that was attached
+        List<Artwork> upVersionedArtworks = createNewDrafts(logger, batch, errors);
+
+        Set<String> notAttached = attachToPmf(logger, batch, errors);
+
+        for (Artwork artwork : upVersionedArtworks) {
+          if (!notAttached.contains(artwork.artDocVersionId)) {
+            errors.run(artwork.artDocVersionId, () -> startPmfDraftWorkflow(artwork.artDocVersionId, logger));
+          }
+        }
+      } finally {
+        QueryMetrics.end(new Logger(logger));
       }
 
-      taskOutput.setState(TaskState.SUCCESS);
-      logger.log("Task successful");
+      errors.setTaskOutput(jobProcessContext.getCurrentTask().getTaskOutput());
     }
 
     public void completeWithSuccess(JobCompletionContext jobCompletionContext) {
@@ -98,13 +240,7 @@ import java.util.Set;
        JobLogger logger = jobCompletionContext.getJobLogger();
        logger.log("completeWithError: " + result.getNumberFailedTasks() + " tasks failed out of " + result.getNumberTasks());
 
-       List<JobTask> tasks = jobCompletionContext.getTasks();
-       for (JobTask task : tasks) {
-         TaskOutput taskOutput = task.getTaskOutput();
-         if (TaskState.ERRORS_ENCOUNTERED.equals(taskOutput.getState())) {
-            logger.log(task.getTaskId() + " failed with error message " + taskOutput.getValue("firstError", JobValueType.STRING));
-         }
-       }
+       JobTaskErrors.logTaskErrors(jobCompletionContext);
     }
 
     /*
@@ -112,53 +248,26 @@ import java.util.Set;
        into account whether a new version has already been created...
      */
     private void processArtworkDocument(
-      JobLogger logger, String pmfRecordId, String artDocVersionId, String artDocRecordId
+      JobLogger logger,
+      Artwork artwork,
+      ArtworkFieldCopyPlan fieldCopyPlan,
+      QueryExecutionResult steadyStateVersion,
+      TaskBatch batch
     ) {
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
 
-      logger.log("Starting processArtworkDocument() for artwork document " + artDocVersionId);
-
-      DocVersionIdParts docVersionIdParts = new DocVersionIdParts(artDocVersionId);
-
-      String query = "select version_id, toName(status__v), pmf__c from documents where id = " + docVersionIdParts.id;
-
-      logger.log(artDocVersionId + ": " + query);
-      QueryResult queryResult = queryService.query(query).streamResults().findFirst().get();
+      String artDocVersionId = artwork.artDocVersionId;
 
-      String currentArtworkVersionId = queryResult.getValue("version_id", ValueType.STRING);
-      String currentArtworkState = queryResult.getValue("status__v", ValueType.PICKLIST_VALUES).get(0);
-      String currentArtworkPmf = Util.getFirst(queryResult.getValue("pmf__c", ValueType.REFERENCES));
-
-      logger.log(artDocVersionId + ": current version id: " + currentArtworkVersionId );
-      logger.log(artDocVersionId + ": current artwork state: " + currentArtworkState);
-      logger.log(artDocVersionId + ": current artwork pmf: " + currentArtworkPmf);
-
-      String impactedArtworkVersionState = getArtworkVersionState(artDocVersionId);
-      int impactedArtworkMajorVersion = docVersionIdParts.major;
-      int currentArtworkMajorVersion = DocVersionIdParts.major(currentArtworkVersionId);
-
-      logger.log(artDocVersionId + ": original artwork state when linked to PMF: " + impactedArtworkVersionState);
+      logger.log("Starting processArtworkDocument() for artwork document " + artDocVersionId);
+      logger.log(artDocVersionId + ": current version id: " + artwork.currentVersionId);
+      logger.log(artDocVersionId + ": current artwork state: " + artwork.currentState);
+      logger.log(artDocVersionId + ": current artwork pmf: " + artwork.currentPmf);
+      logger.log(artDocVersionId + ": original artwork state when linked to PMF: " + artwork.impactedState);
 
-      if (
-          impactedArtworkVersionState.equals(ARTWORK_STATE_APPROVED_FOR_USE) &&
-          currentArtworkVersionId.equals(artDocVersionId) &&
-          currentArtworkState.equals(ARTWORK_STATE_APPROVED_FOR_USE)
-      ) {
-        upVersionArtworkDocument(logger, pmfRecordId, artDocVersionId, artDocRecordId);
+      if (artwork.isUpVersion()) {
+        upVersionArtworkDocument(logger, artwork, fieldCopyPlan, steadyStateVersion, batch);
       }
-      else if (
-          impactedArtworkVersionState.equals(ARTWORK_STATE_APPROVED_FOR_USE) &&
-          !currentArtworkVersionId.equals(artDocVersionId) &&
-          currentArtworkPmf == null
-      ) {
-        setArtworkPmf(pmfRecordId, artDocVersionId, artDocRecordId, logger);
-      }
-      else if (
-          impactedArtworkVersionState.equals(ARTWORK_STATE_DRAFT) &&
-          currentArtworkMajorVersion == impactedArtworkMajorVersion &&
-          currentArtworkPmf == null
-      ) {
-        setArtworkPmf(pmfRecordId, artDocVersionId, artDocRecordId, logger);
+      else if (artwork.isSetPmf()) {
+        setArtworkPmf(artwork, logger, batch);
       }
       else {
         logger.log(artDocVersionId + " not processed due to current state");
@@ -166,67 +275,45 @@ import java.util.Set;
     }
 
     /*
-     * create the new Draft version of the approved Artwork document...
+     * build the new Draft version of the approved Artwork document, and add it to the task's batch...
      */
     private void upVersionArtworkDocument(
-      JobLogger logger, String pmfRecordId, String artDocVersionId, String artDocRecordId
+      JobLogger logger,
+      Artwork artwork,
+      ArtworkFieldCopyPlan fieldCopyPlan,
+      QueryExecutionResult queryResult,
+      TaskBatch batch
     ) {
 
+      String pmfRecordId = artwork.pmfRecordId;
+      String artDocVersionId = artwork.artDocVersionId;
+
       logger.log("Starting upVersionArtworkDocument() for " + artDocVersionId);
 
       ConnectionService connectionService = ServiceLocator.locate(ConnectionService.class);
       DocumentService documentService = ServiceLocator.locate((DocumentService.class));
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
 
       ConnectionContext connectionContext = connectionService.newConnectionContext(
         "pmf_local_connection__c", ConnectionUser.SDK_CURRENT_USER    //.CONNECTION_AUTHORIZED_USER
       );
 
-      List<VaultField> artDocFields = getArtworkDocumentFieldNamesAndTypes();
-
-      List<String> fieldNames = getFieldNames(artDocFields);
-
-      // check to see if the latest version of this document is the Steady State version
-      // that is referenced by the PMF Artwork Document record.  In other words, we're
-      // verifying that the document has not yet received a new Draft...
-      StringBuilder sbQuery = new StringBuilder();
-      sbQuery
-        .append("select")
-        .append(" version_id, ")
-        .append(Util.stringifyList(fieldNames))
-        .append(" from documents")
-        .append(" where version_id = '").append(artDocVersionId).append("'")
-        .append(" and status__v = steadystate()");
-      String query = sbQuery.toString();
-
-      logger.log(query);
-
-      QueryResponse queryResponse = queryService.query(query);
-
-      if (queryResponse.getResultCount() == 0) {
-        // The Steady State version referenced by the PMF is no longer the latest version.
+      // queryResult is null if the Steady State version referenced by the PMF Artwork Document
+      // record is no longer the latest version of the document (see getSteadyStateVersions()).
+      // In other words, the document has already received a new Draft...
+      if (queryResult == null) {
         // Check if the latest version has the PMF ID.  If this is the case, that means that
         // this new Draft was previously created by this PMF, and no further action is required.
-        QueryResult queryResult = queryService.query(
-          "select pmf__c from documents where id = " + DocVersionIdParts.id(artDocVersionId)
-        ).streamResults().findFirst().get();
-
-        String pmf = Util.getFirst(queryResult.getValue("pmf__c", ValueType.PICKLIST_VALUES));
-
-        if (pmf == null) {
+        if (artwork.currentPmf == null) {
           // a new Draft exists, but is not connected to the PMF...
-          setArtworkPmf(pmfRecordId, artDocVersionId, artDocRecordId, logger);
+          setArtworkPmf(artwork, logger, batch);
           logger.log("New version referencing this PMF was not found for " + artDocVersionId);
-          sendErrorNotification(pmfRecordId, artDocVersionId, "A new Draft version may already have been created.");
+          sendErrorNotification(artwork, "A new Draft version may already have been created.");
         } else {
           logger.log("A new Draft version already exists of artwork document " + artDocVersionId);
         }
         return;
       }
 
-      // The above query will only ever return 1 result, if any...
-      QueryResult queryResult = queryResponse.streamResults().findFirst().get();
-
       DocumentSourceFileReference sourceFile = documentService.newDocumentSourceFileReference(
         connectionContext, artDocVersionId
       );
@@ -239,152 +326,234 @@ import java.util.Set;
       newVersion.setValue("minor_version_number__v", BigDecimal.valueOf(docVersionIdParts.minor + 1));
       newVersion.setValue("status__v", VaultCollections.asList("Draft"));
       newVersion.setValue("pmf__c", VaultCollections.asList(pmfRecordId));
-      newVersion.setValue("pmf_annotated_version__c", getRedlineDocumentURL(artDocRecordId));
+      newVersion.setValue("pmf_annotated_version__c", artwork.redlineUrl);
 
-      boolean missingRequiredField = false;
+      String missingRequiredField = fieldCopyPlan.copy(queryResult, newVersion);
 
-      for (VaultField field : artDocFields) {
-        Object value = queryResult.getValue(field.fieldName, field.valueType);
-        if (field.required && value == null) {
-          logger.log("Missing required field: " + field.fieldName);
-          missingRequiredField = true;
-          break;
-        }
-        newVersion.setValue(field.fieldName, queryResult.getValue(field.fieldName, field.valueType));
-      }
-
-      if (missingRequiredField) {
+      if (missingRequiredField != null) {
+        logger.log("Missing required field: " + missingRequiredField);
         logger.log("Artwork document " + artDocVersionId + " has missing required fields.  Cannot be up-versioned");
-        sendErrorNotification(pmfRecordId, artDocVersionId, "Possible missing required fields in Approved version.");
+        sendErrorNotification(artwork, "Possible missing required fields in Approved version.");
         return;
       }
 
       newVersion.setSourceFile(sourceFile);
 
-      logger.log("Creating new version for " + artDocVersionId + " with migrateDocumentVersions()");
-      SaveDocumentVersionsResponse response = documentService.migrateDocumentVersions(
-        VaultCollections.asList(newVersion)
-      );
-      if (response.getSuccesses().size() == 0) {
-        logger.log("Failed to create new draft version for artwork document " + artDocVersionId + ". Reason unknown.");
-        sendErrorNotification(pmfRecordId, artDocVersionId, "Unknown.");
-      } else {
-        String newDocVersionId = response.getSuccesses().get(0).getDocumentVersionId();
-        attachNewDocVersionToPmf(pmfRecordId, artDocVersionId, newDocVersionId, logger);
-        startPmfDraftWorkflow(artDocVersionId, logger);
-        logger.log("Successfully created new draft version for artwork document " + artDocVersionId);
+      batch.newDraftArtworks.add(artwork);
+      batch.newDrafts.add(newVersion);
+    }
+
+    /*
+     * Create all of the new Draft versions in the task's batch with one call to migrateDocumentVersions(),
+     * and add the records attaching the new versions to the PMF to the batch.  Returns the artworks for
+     * which a new Draft version was created.  Failures are reported per artwork.
+     */
+    private List<Artwork> createNewDrafts(JobLogger logger, TaskBatch batch, JobTaskErrors errors) {
+
+      List<Artwork> upVersionedArtworks = VaultCollections.newList();
+
+      if (batch.newDrafts.size() == 0) {
+        return upVersionedArtworks;
+      }
+
+      DocumentService documentService = ServiceLocator.locate(DocumentService.class);
+
+      logger.log("Creating " + batch.newDrafts.size() + " new version(s) with migrateDocumentVersions()");
+
+      SaveDocumentVersionsResponse response;
+      try {
+        response = documentService.migrateDocumentVersions(batch.newDrafts);
+      } catch (RuntimeException e) {
+        for (Artwork artwork : batch.newDraftArtworks) {
+          errors.addError(artwork.artDocVersionId, "Failed to create new draft version due to: " + e.getMessage());
+          errors.run(artwork.artDocVersionId, () -> sendErrorNotification(artwork, e.getMessage()));
+        }
+        return upVersionedArtworks;
       }
+
+      // the results are reported by position in the list of new versions
+      String[] newDocVersionIds = new String[batch.newDrafts.size()];
+      String[] errorMessages = new String[batch.newDrafts.size()];
+      for (PositionalDocumentVersionId success : response.getSuccesses()) {
+        newDocVersionIds[success.getInputPosition()] = success.getDocumentVersionId();
+      }
+      for (BatchOperationError error : response.getErrors()) {
+        errorMessages[error.getInputPosition()] = error.getError().getMessage();
+      }
+
+      for (int i = 0; i < batch.newDraftArtworks.size(); i++) {
+        Artwork artwork = batch.newDraftArtworks.get(i);
+        if (newDocVersionIds[i] != null) {
+          batch.addUpversionedArtwork(
+            artwork, newUpversionedArtworkRecord(artwork.pmfRecordId, artwork.documentNumber, newDocVersionIds[i])
+          );
+          upVersionedArtworks.add(artwork);
+          logger.log("Successfully created new draft version for artwork document " + artwork.artDocVersionId);
+        } else {
+          String reason = errorMessages[i] == null ? "Unknown." : errorMessages[i];
+          errors.addError(artwork.artDocVersionId, "Failed to create new draft version due to: " + reason);
+          errors.run(artwork.artDocVersionId, () -> sendErrorNotification(artwork, reason));
+        }
+      }
+
+      return upVersionedArtworks;
+    }
+
+    /*
+     * Save all of the 'PMF Versioned Artwork Document' records in the task's batch with one call to
+     * batchSaveRecords().  Failures are reported per artwork.  Returns the version ID's of the Impacted
+     * Artworks whose record was not saved.
+     */
+    private Set<String> attachToPmf(JobLogger logger, TaskBatch batch, JobTaskErrors errors) {
+
+      Set<String> notAttached = VaultCollections.newSet();
+
+      if (batch.upversionedArtworkRecords.size() == 0) {
+        return notAttached;
+      }
+
+      RecordService recordService = ServiceLocator.locate(RecordService.class);
+
+      logger.log("Creating " + batch.upversionedArtworkRecords.size() + " 'PMF Versioned Artwork Document' record(s)");
+
+      // the errors are reported by position in the list of records
+      String[] errorMessages = new String[batch.upversionedArtworkRecords.size()];
+      try {
+        recordService.batchSaveRecords(batch.upversionedArtworkRecords)
+          .onErrors(batchOperationErrors -> {
+            for (BatchOperationError error : batchOperationErrors) {
+              errorMessages[error.getInputPosition()] = error.getError().getMessage();
+            }
+          })
+          .execute();
+      } catch (RuntimeException e) {
+        for (int i = 0; i < errorMessages.length; i++) {
+          errorMessages[i] = e.getMessage();
+        }
+      }
+
+      for (int i = 0; i < errorMessages.length; i++) {
+        if (errorMessages[i] != null) {
+          Artwork artwork = batch.upversionedArtworks.get(i);
+          String reason = "Unable to create new 'PMF Versioned Artwork Document' record due to: " + errorMessages[i];
+          errors.addError(artwork.artDocVersionId, reason);
+          errors.run(artwork.artDocVersionId, () -> sendErrorNotification(artwork, reason));
+          notAttached.add(artwork.artDocVersionId);
+        }
+      }
+
+      return notAttached;
     }
 
     /*
      * A new version of the impacted Artwork document was created in the UI.  Set the new version's PMF field
      * to the PMF record ID, and attach the new version to the PMF.
      */
-    private void setArtworkPmf(
-      String pmfRecordId, String artDocVersionId, String artDocRecordId, JobLogger logger
-    ) {
+    private void setArtworkPmf(Artwork artwork, JobLogger logger, TaskBatch batch) {
       DocumentService documentService = ServiceLocator.locate(DocumentService.class);
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
 
-      logger.log("Starting setArtworkPmf() for " + artDocVersionId);
+      logger.log("Starting setArtworkPmf() for " + artwork.artDocVersionId);
 
-      String artDocId = DocVersionIdParts.id(artDocVersionId);
+      String artDocId = DocVersionIdParts.id(artwork.artDocVersionId);
 
       DocumentVersion newVersion = documentService.newVersion(artDocId);
-      newVersion.setValue("pmf__c", VaultCollections.asList(pmfRecordId));
-      newVersion.setValue("pmf_annotated_version__c", getRedlineDocumentURL(artDocRecordId));
+      newVersion.setValue("pmf__c", VaultCollections.asList(artwork.pmfRecordId));
+      newVersion.setValue("pmf_annotated_version__c", artwork.redlineUrl);
 
       SaveDocumentVersionsResponse response = documentService.saveDocumentVersions(VaultCollections.asList(newVersion));
 
-      // infinitesimally small chance of a race condition here...
-      String newArtDocVersionId = queryService.query(
-        "select version_id from documents where id = " + artDocId
-      ).streamResults().findFirst().get().getValue("version_id", ValueType.STRING);
-
-      QueryResponse queryResponse = queryService.query(
-        "select id from pmf_upversioned_artwork__c where new_artwork_version__c = '"+newArtDocVersionId+"'"
-      );
-      if (queryResponse.streamResults().count() == 0) {
-        attachNewDocVersionToPmf(pmfRecordId, artDocVersionId, newArtDocVersionId, logger);
+      // saving the fields does not create a new version, so the latest version read by init(), or re-read by
+      // refreshLatestVersions(), is the version just updated...
+      if (!artwork.currentAttached) {
+        batch.addUpversionedArtwork(
+          artwork, newUpversionedArtworkRecord(artwork.pmfRecordId, artwork.documentNumber, artwork.currentVersionId)
+        );
       }
       return;
     }
 
     /*
-     * Create a new record in object 'PMF Versioned Artwork Document' to link the new Draft version
+     * Return a new record in object 'PMF Versioned Artwork Document' to link the new Draft version
      * of the Artwork document to the PMF.
      */
-    private void attachNewDocVersionToPmf(
-      String pmfRecordId, String artDocVersionId, String newArtDocVersionId, JobLogger logger
-    ) {
-
+    private Record newUpversionedArtworkRecord(String pmfRecordId, String docNumber, String newArtDocVersionId) {
       RecordService recordService = ServiceLocator.locate(RecordService.class);
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
-
-      logger.log("attachNewDocVersionToPmf: querying for document number for " + newArtDocVersionId);
-      // NOTE: the "old" artDocVersionId is used here because when this query is executed, the new
-      // version might not yet exist (because it hasn't been committed to the database).  The "allversions"
-      // modifier is used because the new version might exist...
-      QueryResponse queryResponse = queryService.query(
-        "select document_number__v from allversions documents where version_id = '"+artDocVersionId+"'"
-      );
-      String docNumber = queryResponse
-        .streamResults()
-        .findFirst()
-        .get()
-        .getValue("document_number__v", ValueType.STRING);
-
       Record record = recordService.newRecord("pmf_upversioned_artwork__c");
       record.setValue("pmf__c", pmfRecordId);
       record.setValue("new_artwork_version__c", newArtDocVersionId);
       record.setValue("document_number__c", docNumber);
-
-      recordService.batchSaveRecords(VaultCollections.asList(record))
-        .onErrors(batchOperationErrors -> {
-          batchOperationErrors.stream().findFirst().ifPresent(error -> {
-            String errMsg = error.getError().getMessage();
-            String logMsg =
-              "attachNewDocVersionIdToPmf: Unable to create new 'PMF Versioned Artwork Document' record due to: " + errMsg;
-            logger.log(logMsg);
-            throw new RollbackException("OPERATION_FAILED", logMsg);
-          });
-        })
-        .execute();
+      return record;
     }
 
     /**
-     * Build and return a list of Artwork Document fields where each field's name and ValueType and whether
-     * the field is a required field.
-     *
-     * The information in this list will be used to construct a vql query to query all necessary
-     * fields from a PMF's impacted artwork document(s) and to specify the applicable ValueType enum on
-     * setting the new DocumentVersion's field values.
-     *
-     * @return list of VaultField objects
+     * Return the given artwork versions that are still the latest, Steady State version of their document,
+     * with the values of the fields to be copied to the new Draft, keyed by version ID.  Versions that have
+     * since received a new Draft are not included.
+     * @param artDocVersionIds - List<String>
+     * @param fieldCopyPlan - ArtworkFieldCopyPlan
+     * @return Map<String, QueryExecutionResult>
      */
-    private List<VaultField> getArtworkDocumentFieldNamesAndTypes() {
+    private Map<String, QueryExecutionResult> getSteadyStateVersions(
+      List<String> artDocVersionIds, ArtworkFieldCopyPlan fieldCopyPlan
+    ) {
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
-      QueryResponse queryResponse = queryService.query(
-        "select LongText(artwork_fields__c) from vproc_parameter_set__c where name__v = 'pmf'"
-      );
+      Map<String, QueryExecutionResult> versions = VaultCollections.newMap();
+
+      String fields = fieldCopyPlan.size() == 0 ? "version_id" : "version_id, " + fieldCopyPlan.getSelectList();
 
-      String artworkFieldTypesInfo =  queryResponse
-        .streamResults()
-        .findFirst()
-        .get()
-        .getValue("artwork_fields__c", ValueType.STRING);
+      Iterator<QueryExecutionResult> iter = VqlQuery.select(fields)
+        .from("documents")
+        .whereIn("version_id", artDocVersionIds)
+        .where("status__v = steadystate()")
+        .execute();
 
-      return Util.parseVaultFieldInfo(artworkFieldTypesInfo);
+      while (iter.hasNext()) {
+        QueryExecutionResult queryResult = iter.next();
+        versions.put(queryResult.getValue("version_id", ValueType.STRING), queryResult);
+      }
 
+      return versions;
     }
 
-    private List<String> getFieldNames(List<VaultField> fields) {
-      List <String> fieldNames = VaultCollections.newList();
-      for (VaultField field : fields) {
-        fieldNames.add(field.fieldName);
+    /*
+     * Re-read the latest version of each artwork's document, its PMF, and whether it is already attached
+     * to a PMF, with one query for all of the documents and one for the attachments.  Used for documents
+     * that are no longer in the state read by init().
+     */
+    private void refreshLatestVersions(List<Artwork> artworks) {
+
+      if (artworks.size() == 0) {
+        return;
+      }
+
+      Map<String, Artwork> artworksByDocId = VaultCollections.newMap();
+      for (Artwork artwork : artworks) {
+        artworksByDocId.put(DocVersionIdParts.id(artwork.artDocVersionId), artwork);
+      }
+
+      Set<String> latestVersionIds = VaultCollections.newSet();
+      Iterator<QueryExecutionResult> iter = VqlQuery.select("version_id", "pmf__c")
+        .from("documents")
+        .whereIn("id", artworksByDocId.keySet())
+        .execute();
+      while (iter.hasNext()) {
+        QueryExecutionResult qr = iter.next();
+        String versionId = qr.getValue("version_id", ValueType.STRING);
+        Artwork artwork = artworksByDocId.get(DocVersionIdParts.id(versionId));
+        artwork.currentVersionId = versionId;
+        artwork.currentPmf = Util.getFirst(qr.getValue("pmf__c", ValueType.REFERENCES));
+        artwork.currentAttached = false;
+        latestVersionIds.add(versionId);
+      }
+
+      iter = VqlQuery.select("new_artwork_version__c")
+        .from("pmf_upversioned_artwork__c")
+        .whereIn("new_artwork_version__c", latestVersionIds)
+        .execute();
+      while (iter.hasNext()) {
+        String versionId = iter.next().getValue("new_artwork_version__c", ValueType.STRING);
+        artworksByDocId.get(DocVersionIdParts.id(versionId)).currentAttached = true;
       }
-      return fieldNames;
     }
 
     /**
@@ -407,19 +576,18 @@ import java.util.Set;
     }
 
     // inform the PMF Requestor that an error has occurred while trying to create a new Draft
-    private void sendErrorNotification(String pmfRecordId, String artDocVersionId, String reason) {
-
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
+    private void sendErrorNotification(Artwork artwork, String reason) {
 
-      Record pmfRecord = PMF.getRecord(pmfRecordId);
+      PmfSnapshot pmf = PmfSnapshot.get(artwork.pmfRecordId);
+      if (pmf == null) {
+        return;  // no PMF, so no Requestor to notify
+      }
       Set<String> recipients = VaultCollections.newSet();
-      recipients.add(pmfRecord.getValue("pmf_requestor__c", ValueType.STRING));
+      recipients.add(pmf.requestorId);
 
-      String docNumber = queryService.query(
-        "select document_number__v from allversions documents where version_id = '"+artDocVersionId+"'"
-      ).streamResults().findFirst().get().getValue("document_number__v", ValueType.STRING);
+      String docNumber = artwork.documentNumber;
 
-      String url = Util.getDocumentURL(Parameters.getVaultDomain(), artDocVersionId);
+      String url = Util.getDocumentURL(Parameters.getVaultDomain(), artwork.artDocVersionId);
 
       String subject = "Failed to create new draft version of Artwork Document " + docNumber;
 
@@ -428,45 +596,87 @@ import java.util.Set;
         .append("<a href=").append(url).append(">")
         .append(docNumber)
         .append("</a> for ")
-        .append("<b>").append(pmfRecord.getValue("name__v", ValueType.STRING)).append("</b>.")
+        .append("<b>").append(pmf.name).append("</b>.")
         .append("<br /><br /><b>Reason: </b>").append(reason)
         .append("<br /><br />Contact the system administrator for assistance.");
 
       Util.sendNotificationSimple(recipients, subject, message.toString());
     }
 
-    private String getRedlineDocumentURL(String pmfArtworkDocumentRecordId) {
+    // values that are not set read back as null
+    private static void setValueIfNotNull(JobItem jobItem, String name, String value) {
+      if (value != null) {
+        jobItem.setValue(name, value);
+      }
+    }
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
+    /*
+     * The new Draft versions and 'PMF Versioned Artwork Document' records built while processing a task's
+     * artworks, which are saved together once all of the artworks have been processed.
+     */
+    private static class TaskBatch {
 
-      QueryResponse queryResponse = queryService.query(
-        "select redline_artwork_document__c" +
-        "  from pmf_redline_artwork_document__c" +
-        " where pmf_artwork_document_record_id__c = '"+pmfArtworkDocumentRecordId+"'"
-      );
+      final List<Artwork> newDraftArtworks = VaultCollections.newList();
+      final List<DocumentVersion> newDrafts = VaultCollections.newList();  // same order as newDraftArtworks
+      final List<Record> upversionedArtworkRecords = VaultCollections.newList();
+      final List<Artwork> upversionedArtworks = VaultCollections.newList();  // same order as upversionedArtworkRecords
 
-      if (queryResponse.getResultCount() > 0) {
-        String redlineArtworkVersionId = queryResponse
-          .streamResults()
-          .findFirst()
-          .get()
-          .getValue("redline_artwork_document__c", ValueType.STRING);
-        return Util.getDocumentURL(redlineArtworkVersionId);
-      } else {
-        return null;
+      void addUpversionedArtwork(Artwork artwork, Record upversionedArtworkRecord) {
+        this.upversionedArtworks.add(artwork);
+        this.upversionedArtworkRecords.add(upversionedArtworkRecord);
       }
     }
 
-    private String getArtworkVersionState(String artDocVersionId) {
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
-      return queryService.query(
-        "select toName(status__v) from allversions documents where version_id = '"+artDocVersionId+"'"
-      )
-        .streamResults()
-        .findFirst()
-        .get()
-        .getValue("status__v", ValueType.PICKLIST_VALUES)
-        .get(0);
+    /*
+     * The state of an Impacted Artwork document, as read by init() and carried in a job item.  The
+     * latest version's values may be re-read by refreshLatestVersions().
+     */
+    private static class Artwork {
+
+      final String pmfRecordId;
+      final String artDocVersionId;
+      final String artDocRecordId;
+      final String impactedState;
+      final String documentNumber;
+      String currentVersionId;
+      final String currentState;
+      String currentPmf;
+      boolean currentAttached;
+      final String redlineUrl;
+
+      Artwork(JobItem jobItem) {
+        this.pmfRecordId = jobItem.getValue(ITEM_PMF_RECORD_ID, JobValueType.STRING);
+        this.artDocVersionId = jobItem.getValue(ITEM_ART_DOC_VERSION_ID, JobValueType.STRING);
+        this.artDocRecordId = jobItem.getValue(ITEM_ART_DOC_RECORD_ID, JobValueType.STRING);
+        this.impactedState = jobItem.getValue(ITEM_IMPACTED_STATE, JobValueType.STRING);
+        this.documentNumber = jobItem.getValue(ITEM_DOCUMENT_NUMBER, JobValueType.STRING);
+        this.currentVersionId = jobItem.getValue(ITEM_CURRENT_VERSION_ID, JobValueType.STRING);
+        this.currentState = jobItem.getValue(ITEM_CURRENT_STATE, JobValueType.STRING);
+        this.currentPmf = jobItem.getValue(ITEM_CURRENT_PMF, JobValueType.STRING);
+        this.currentAttached = jobItem.getValue(ITEM_CURRENT_ATTACHED, JobValueType.BOOLEAN);
+        this.redlineUrl = jobItem.getValue(ITEM_REDLINE_URL, JobValueType.STRING);
+      }
+
+      // the approved Impacted Artwork version is still the latest version; create the new Draft
+      boolean isUpVersion() {
+        return
+          impactedState.equals(ARTWORK_STATE_APPROVED_FOR_USE) &&
+          currentVersionId.equals(artDocVersionId) &&
+          currentState.equals(ARTWORK_STATE_APPROVED_FOR_USE);
+      }
+
+      // a new version of the Impacted Artwork was created in the UI, but is not yet connected to the PMF
+      boolean isSetPmf() {
+        if (currentPmf != null) {
+          return false;
+        }
+        if (impactedState.equals(ARTWORK_STATE_APPROVED_FOR_USE)) {
+          return !currentVersionId.equals(artDocVersionId);
+        }
+        return
+          impactedState.equals(ARTWORK_STATE_DRAFT) &&
+          DocVersionIdParts.major(currentVersionId) == DocVersionIdParts.major(artDocVersionId);
+      }
     }
 
     /*
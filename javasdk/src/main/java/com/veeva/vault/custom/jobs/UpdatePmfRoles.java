@@ -2,7 +2,12 @@ package com.veeva.vault.custom.jobs;
 
 import com.veeva.vault.custom.udc.PMF;
 import com.veeva.vault.custom.udc.PMFStatus;
+import com.veeva.vault.custom.udc.Logger;
 import com.veeva.vault.custom.udc.PmfUsers;
+import com.veeva.vault.custom.udc.QueryMetrics;
+import com.veeva.vault.custom.udc.QueryUtil;
+import com.veeva.vault.custom.udc.RecordRoleUpdateBatch;
+import com.veeva.vault.custom.udc.ReferenceDataCache;
 import com.veeva.vault.custom.udc.Util;
 import com.veeva.vault.sdk.api.core.ServiceLocator;
 import com.veeva.vault.sdk.api.core.ValueType;
@@ -11,11 +16,7 @@ import com.veeva.vault.sdk.api.data.ReadRecordsResponse;
 import com.veeva.vault.sdk.api.data.Record;
 import com.veeva.vault.sdk.api.data.RecordService;
 import com.veeva.vault.sdk.api.job.*;
-import com.veeva.vault.sdk.api.query.QueryResponse;
-import com.veeva.vault.sdk.api.query.QueryResult;
-import com.veeva.vault.sdk.api.query.QueryService;
 
-import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
@@ -24,33 +25,21 @@ import java.util.List;
  * This job updates Regulatory and Plant Reviewer roles on active PMF's based on changes
  * in PMF User Role Setup.
  *
+ * init() creates one job item per qualifying PMF, and each task updates the PMF's in its
+ * chunk of job items.  The number of PMF's per task is the job's Chunk Size.
+ *
  */
   
   @JobInfo(adminConfigurable = true)
   public class UpdatePmfRoles implements Job {
 
+    static final int PAGE_SIZE = 1000;  // PMF ID's read per query in init()
+
     public JobInputSupplier init(JobInitContext jobInitContext) {
 
       JobLogger logger = jobInitContext.getJobLogger();
 
       String concatenatedRoleNames = jobInitContext.getJobParameter("concatenatedRoleNames", JobParamValueType.STRING);
-
-      JobItem jobItem = jobInitContext.newJobItem();
-      jobItem.setValue("concatenatedRoleNames", concatenatedRoleNames);
-
-      return jobInitContext.newJobInput(VaultCollections.asList(jobItem));
-    }
-
-    public void process(JobProcessContext jobProcessContext) {
-
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
-      RecordService recordService = ServiceLocator.locate(RecordService.class);
-      JobLogger logger = jobProcessContext.getJobLogger();
-
-      JobItem item = jobProcessContext.getCurrentTask().getItems().get(0);
-
-      String concatenatedRoleNames = item.getValue("concatenatedRoleNames", JobValueType.STRING);
-      boolean containsRegulatoryRole = concatenatedRoleNames.contains("regulatory__c");
       boolean containsPlantReviewerRole = concatenatedRoleNames.contains("pmf_plant_reviewer__c");
 
       List<String> states = VaultCollections.newList();
@@ -65,39 +54,72 @@ import java.util.List;
         states.add(PMFStatus.IN_PLANT_REVIEW);
       }
 
-      QueryResponse queryResponse = queryService.query(
-        "select id from pmf__c where state__v contains " + Util.vqlContains(states)
+      // One job item per PMF; the platform distributes the items across tasks according to the
+      // job's chunk size, so each task loads and updates only its own PMF's.
+      List<JobItem> jobItems = VaultCollections.newList();
+
+      Iterator<String> iter = QueryUtil.queryPaged(
+        "select id from pmf__c where state__v contains " + Util.vqlContains(states) + " order by id",
+        PAGE_SIZE,
+        result -> result.getValue("id", ValueType.STRING)
       );
 
-      if (queryResponse.getResultCount() > 0) {
+      while (iter.hasNext()) {
+        JobItem jobItem = jobInitContext.newJobItem();
+        jobItem.setValue("pmfId", iter.next());
+        jobItem.setValue("concatenatedRoleNames", concatenatedRoleNames);
+        jobItems.add(jobItem);
+      }
+
+      logger.log("Updating roles on " + jobItems.size() + " PMF(s)");
+
+      return jobInitContext.newJobInput(jobItems);
+    }
+
+    public void process(JobProcessContext jobProcessContext) {
+
+      RecordService recordService = ServiceLocator.locate(RecordService.class);
+      JobLogger logger = jobProcessContext.getJobLogger();
+
+      List<JobItem> items = jobProcessContext.getCurrentTask().getItems();
+
+      QueryMetrics.begin("UpdatePmfRoles");
+      try {
+        String concatenatedRoleNames = items.get(0).getValue("concatenatedRoleNames", JobValueType.STRING);
+        boolean containsRegulatoryRole = concatenatedRoleNames.contains("regulatory__c");
+        boolean containsPlantReviewerRole = concatenatedRoleNames.contains("pmf_plant_reviewer__c");
 
         List<Record> records = VaultCollections.newList();
 
-        Iterator<QueryResult> iter = queryResponse.streamResults().iterator();
-        while (iter.hasNext()) {
-          QueryResult qr = iter.next();
+        for (JobItem item : items) {
           records.add(
-            recordService.newRecordWithId("pmf__c", qr.getValue("id", ValueType.STRING))
+            recordService.newRecordWithId("pmf__c", item.getValue("pmfId", JobValueType.STRING))
           );
         }
 
         ReadRecordsResponse recordsResponse = recordService.readRecords(records);
-        Collection<Record> readRecords = recordsResponse.getRecords().values();
+        List<Record> readRecords = VaultCollections.newList();
+        readRecords.addAll(recordsResponse.getRecords().values());
 
         PmfUsers pmfUsers = new PmfUsers();
+        RecordRoleUpdateBatch roleUpdates = new RecordRoleUpdateBatch();
 
-        for (Record record : readRecords) {
-          String pmfName = record.getValue("name__v", ValueType.STRING);
-          if (containsRegulatoryRole) {
-            logger.log("Updating Regulatory role for " + pmfName);
-            PMF.updateRegulatoryRole(record, pmfUsers);
-          }
-          if (containsPlantReviewerRole) {
-            logger.log("Updating Plant Reviewer role for " + pmfName);
-            PMF.updatePlantReviewerRole(record, pmfUsers);
-          }
+        // resolve the users for all PMF's up front; PMF's with the same attributes are resolved once
+        if (containsRegulatoryRole) {
+          logger.log("Updating Regulatory role for " + readRecords.size() + " PMF(s)");
+          PMF.updateRegulatoryRoles(readRecords, pmfUsers.getRegulatoryUsers(readRecords), roleUpdates);
+        }
+        if (containsPlantReviewerRole) {
+          logger.log("Updating Plant Reviewer role for " + readRecords.size() + " PMF(s)");
+          PMF.updatePlantReviewerRoles(readRecords, pmfUsers.getPlantReviewers(readRecords), roleUpdates);
         }
 
+        logger.log("Writing " + roleUpdates.getUpdateCount() + " role update(s)");
+        roleUpdates.execute();
+
+        logger.log(ReferenceDataCache.get().getStatistics());
+      } finally {
+        QueryMetrics.end(new Logger(logger));
       }
 
       JobTask task = jobProcessContext.getCurrentTask();
@@ -0,0 +1,27 @@
+package com.veeva.vault.custom.triggers.country;
+
+import com.veeva.vault.custom.udc.ReferenceDataSnapshot;
+import com.veeva.vault.sdk.api.data.*;
+
+/**
+ *
+ * This trigger marks the persisted PMF reference data snapshot as stale whenever a Country record
+ * is created, changed or deleted.  The snapshot is rebuilt by the next request that needs it.  A failure
+ * to update the parameter record is logged and does not fail the Country transaction.
+ *
+ */
+
+@RecordTriggerInfo(
+  object = "country__v",
+  events = {
+    RecordEvent.AFTER_INSERT,
+    RecordEvent.AFTER_UPDATE,
+    RecordEvent.AFTER_DELETE
+  }
+)
+public class InvalidateReferenceDataSnapshot implements RecordTrigger {
+
+    public void execute(RecordTriggerContext recordTriggerContext) {
+      ReferenceDataSnapshot.invalidate();
+    }
+}
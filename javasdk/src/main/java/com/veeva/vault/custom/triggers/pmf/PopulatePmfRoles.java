@@ -3,8 +3,11 @@ package com.veeva.vault.custom.triggers.pmf;
 import com.veeva.vault.custom.udc.*;
 import com.veeva.vault.sdk.api.core.RollbackException;
 import com.veeva.vault.sdk.api.core.ValueType;
+import com.veeva.vault.sdk.api.core.VaultCollections;
 import com.veeva.vault.sdk.api.data.*;
 
+import java.util.List;
+
 /**
  * This trigger populates and update roles on PMF object records with the
  * appropriate users based on records in the PMF User Role Setup object.
@@ -20,70 +23,90 @@ public class PopulatePmfRoles implements RecordTrigger {
 
     public void execute(RecordTriggerContext recordTriggerContext) {
 
-      PmfUsers pmfUsers = new PmfUsers();
+      QueryMetrics.begin("PopulatePmfRoles");
+      try {
+        PmfUsers pmfUsers = new PmfUsers();
+        RecordRoleUpdateBatch roleUpdates = new RecordRoleUpdateBatch();
+
+        // PMF's whose Regulatory/Plant Reviewer roles need to be updated; these are processed in bulk below
+        List<Record> regulatoryRolePmfs = VaultCollections.newList();
+        List<Record> plantReviewerRolePmfs = VaultCollections.newList();
+
+        RecordEvent recordEvent = recordTriggerContext.getRecordEvent();
+
+        for (RecordChange recordChange : recordTriggerContext.getRecordChanges()) {
+
+          Record pmfNewRecord = recordChange.getNew();
 
-      RecordEvent recordEvent = recordTriggerContext.getRecordEvent();
+          if (recordEvent == RecordEvent.AFTER_INSERT) {
 
-      for (RecordChange recordChange : recordTriggerContext.getRecordChanges()) {
+            String pmfRequestor = pmfNewRecord.getValue("pmf_requestor__c", ValueType.STRING);
+            String createdBy = pmfNewRecord.getValue("created_by__v", ValueType.STRING);
+            if (pmfRequestor != null && !pmfRequestor.equals(createdBy)) {
+              PMF.updateOwnerRole(pmfNewRecord, roleUpdates);
+            }
 
-        Record pmfNewRecord = recordChange.getNew();
+            regulatoryRolePmfs.add(pmfNewRecord);
 
-        if (recordEvent == RecordEvent.AFTER_INSERT) {
+          } else if (recordEvent == RecordEvent.AFTER_UPDATE) {
 
-          String pmfRequestor = pmfNewRecord.getValue("pmf_requestor__c", ValueType.STRING);
-          String createdBy = pmfNewRecord.getValue("created_by__v", ValueType.STRING);
-          if (pmfRequestor != null && !pmfRequestor.equals(createdBy)) {
-            PMF.updateOwnerRole(pmfNewRecord);
-          }
+            Record pmfOldRecord = recordChange.getOld();
 
-          PMF.updateRegulatoryRole(pmfNewRecord, pmfUsers);
+            String newCountry = pmfNewRecord.getValue("requestor_country__c", ValueType.STRING);
+            String newBrand = pmfNewRecord.getValue("brand__c", ValueType.STRING);
+            String newPmfType = pmfNewRecord.getValue("object_type__v", ValueType.STRING);
+            String newBU = Util.getSinglePicklistValue(pmfNewRecord.getValue("business_unit__c", ValueType.PICKLIST_VALUES));
+            String newLogisticSite = pmfNewRecord.getValue("logistic_site__c", ValueType.STRING);
+            String newRequestor = pmfNewRecord.getValue("pmf_requestor__c", ValueType.STRING);
 
-        } else if (recordEvent == RecordEvent.AFTER_UPDATE) {
+            String oldCountry = pmfOldRecord.getValue("requestor_country__c", ValueType.STRING);
+            String oldBrand = pmfOldRecord.getValue("brand__c", ValueType.STRING);
+            String oldPmfType = pmfOldRecord.getValue("object_type__v", ValueType.STRING);
+            String oldBU = Util.getSinglePicklistValue(pmfOldRecord.getValue("business_unit__c", ValueType.PICKLIST_VALUES));
+            String oldLogisticSite = pmfOldRecord.getValue("logistic_site__c", ValueType.STRING);
+            String oldRequestor = pmfOldRecord.getValue("pmf_requestor__c", ValueType.STRING);
 
-          Record pmfOldRecord = recordChange.getOld();
+            if (newRequestor == null) {
+              // this should never happen (see the BEFORE trigger), but just in case...
+              throw new RollbackException(ErrorType.UPDATE_DENIED, "PMF Requestor is required.");
+            }
 
-          String newCountry = pmfNewRecord.getValue("requestor_country__c", ValueType.STRING);
-          String newBrand = pmfNewRecord.getValue("brand__c", ValueType.STRING);
-          String newPmfType = pmfNewRecord.getValue("object_type__v", ValueType.STRING);
-          String newBU = Util.getSinglePicklistValue(pmfNewRecord.getValue("business_unit__c", ValueType.PICKLIST_VALUES));
-          String newLogisticSite = pmfNewRecord.getValue("logistic_site__c", ValueType.STRING);
-          String newRequestor = pmfNewRecord.getValue("pmf_requestor__c", ValueType.STRING);
+            if (!newRequestor.equals(oldRequestor)) {
+              PMF.updateOwnerRole(pmfNewRecord, roleUpdates);
+            }
 
-          String oldCountry = pmfOldRecord.getValue("requestor_country__c", ValueType.STRING);
-          String oldBrand = pmfOldRecord.getValue("brand__c", ValueType.STRING);
-          String oldPmfType = pmfOldRecord.getValue("object_type__v", ValueType.STRING);
-          String oldBU = Util.getSinglePicklistValue(pmfOldRecord.getValue("business_unit__c", ValueType.PICKLIST_VALUES));
-          String oldLogisticSite = pmfOldRecord.getValue("logistic_site__c", ValueType.STRING);
-          String oldRequestor = pmfOldRecord.getValue("pmf_requestor__c", ValueType.STRING);
+            if (
+              !newCountry.equals(oldCountry) ||
+              !newBrand.equals(oldBrand) ||
+              !newBU.equals(oldBU) ||
+              !newPmfType.equals(oldPmfType)
+            ) {
+              regulatoryRolePmfs.add(pmfNewRecord);
+            }
 
-          if (newRequestor == null) {
-            // this should never happen (see the BEFORE trigger), but just in case...
-            throw new RollbackException(ErrorType.UPDATE_DENIED, "PMF Requestor is required.");
-          }
+            if (
+              (newLogisticSite != null && !newLogisticSite.equals(oldLogisticSite)) ||
+                (oldLogisticSite != null && !oldLogisticSite.equals(newLogisticSite))
+            ) {
+              plantReviewerRolePmfs.add(pmfNewRecord);
+            }
 
-          if (!newRequestor.equals(oldRequestor)) {
-            PMF.updateOwnerRole(pmfNewRecord);
-          }
+          }  // end if (recordEvent == RecordEvent.AFTER_UPDATE)
 
-          if (
-            !newCountry.equals(oldCountry) ||
-            !newBrand.equals(oldBrand) ||
-            !newBU.equals(oldBU) ||
-            !newPmfType.equals(oldPmfType)
-          ) {
-            PMF.updateRegulatoryRole(pmfNewRecord, pmfUsers);
-          }
+        }  // end for (RecordChange ...)
 
-          if (
-            (newLogisticSite != null && !newLogisticSite.equals(oldLogisticSite)) ||
-              (oldLogisticSite != null && !oldLogisticSite.equals(newLogisticSite))
-          ) {
-            PMF.updatePlantReviewerRole(pmfNewRecord, pmfUsers);
-          }
+        if (regulatoryRolePmfs.size() > 0) {
+          PMF.updateRegulatoryRoles(regulatoryRolePmfs, pmfUsers.getRegulatoryUsers(regulatoryRolePmfs), roleUpdates);
+        }
 
-        }  // end if (recordEvent == RecordEvent.AFTER_UPDATE)
+        if (plantReviewerRolePmfs.size() > 0) {
+          PMF.updatePlantReviewerRoles(plantReviewerRolePmfs, pmfUsers.getPlantReviewers(plantReviewerRolePmfs), roleUpdates);
+        }
 
-      }  // end for (RecordChange ...)
+        roleUpdates.execute();
+      } finally {
+        QueryMetrics.end(new Logger());
+      }
 
     } // end execute()
 }
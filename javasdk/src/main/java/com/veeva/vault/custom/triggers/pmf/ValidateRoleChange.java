@@ -1,13 +1,12 @@
 package com.veeva.vault.custom.triggers.pmf;
 
 import com.veeva.vault.custom.udc.ErrorType;
+import com.veeva.vault.custom.udc.QueryUtil;
 import com.veeva.vault.sdk.api.core.RollbackException;
-import com.veeva.vault.sdk.api.core.ServiceLocator;
 import com.veeva.vault.sdk.api.core.TriggerOrder;
 import com.veeva.vault.sdk.api.core.ValueType;
 import com.veeva.vault.sdk.api.group.Group;
-import com.veeva.vault.sdk.api.query.QueryResponse;
-import com.veeva.vault.sdk.api.query.QueryService;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
 import com.veeva.vault.sdk.api.role.*;
 
 import java.util.List;
@@ -60,14 +59,14 @@ public class ValidateRoleChange implements RecordRoleTrigger {
 
   private String pmfRequestorId(RecordRoleChange roleChange) {
 
-    QueryService queryService = ServiceLocator.locate(QueryService.class);
     String pmfId = roleChange.getRecordRole().getRecord().getValue("id", ValueType.STRING);
 
-    QueryResponse queryResponse = queryService.query(
+    // not memoized (see PmfSnapshot): the requestor may have been changed earlier in the same request
+    QueryExecutionResult queryResult = QueryUtil.queryOne(
       "select pmf_requestor__c from pmf__c where id = '"+pmfId+"'"
     );
 
-    return queryResponse.streamResults().findFirst().get().getValue("pmf_requestor__c", ValueType.STRING);
+    return queryResult == null ? null : queryResult.getValue("pmf_requestor__c", ValueType.STRING);
   }
 
 }
\ No newline at end of file
@@ -1,9 +1,9 @@
 package com.veeva.vault.custom.triggers.pmf_artwork_document;
 
+import com.veeva.vault.custom.udc.VqlQuery;
 import com.veeva.vault.sdk.api.core.*;
 import com.veeva.vault.sdk.api.data.*;
-import com.veeva.vault.sdk.api.query.QueryResult;
-import com.veeva.vault.sdk.api.query.QueryService;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
 
 import java.util.Iterator;
 import java.util.List;
@@ -28,24 +28,23 @@ public class DeleteRedlineArtworkRecord implements RecordTrigger {
 
     public void execute(RecordTriggerContext recordTriggerContext) {
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
       RecordService recordService = ServiceLocator.locate(RecordService.class);
 
       Set<String> ids = VaultCollections.newSet();
       recordTriggerContext.getRecordChanges().stream().forEach(recordChange -> {
         String id = recordChange.getOld().getValue("id", ValueType.STRING);
-        ids.add("'" + id + "'");
+        ids.add(id);
       });
 
-      String query = "select id from pmf_redline_artwork_document__c" +
-              " where pmf_artwork_document_record_id__c contains (" + String.join (",", ids) + ")";
-
-      Iterator<QueryResult> iterator = queryService.query(query).streamResults().iterator();
+      Iterator<QueryExecutionResult> iterator = VqlQuery.select("id")
+        .from("pmf_redline_artwork_document__c")
+        .whereIn("pmf_artwork_document_record_id__c", ids)
+        .execute();
 
       List<Record> redlineArtworkRecords = VaultCollections.newList();
 
       while (iterator.hasNext()) {
-        QueryResult qr = iterator.next();
+        QueryExecutionResult qr = iterator.next();
         String pmfRedlineArtworkRecordId = qr.getValue("id", ValueType.STRING);
         redlineArtworkRecords.add(
             recordService.newRecordWithId("pmf_redline_artwork_document__c", pmfRedlineArtworkRecordId)
@@ -1,14 +1,13 @@
 package com.veeva.vault.custom.triggers.pmf_artwork_document;
 
 import com.veeva.vault.custom.udc.ErrorType;
+import com.veeva.vault.custom.udc.QueryUtil;
 import com.veeva.vault.custom.udc.Util;
 import com.veeva.vault.sdk.api.core.RollbackException;
-import com.veeva.vault.sdk.api.core.ServiceLocator;
 import com.veeva.vault.sdk.api.core.ValueType;
 import com.veeva.vault.sdk.api.data.*;
 import com.veeva.vault.sdk.api.query.QueryResponse;
 import com.veeva.vault.sdk.api.query.QueryResult;
-import com.veeva.vault.sdk.api.query.QueryService;
 
 import java.util.Iterator;
 
@@ -46,7 +45,6 @@ public class SetArtworkDocumentRecordFields implements RecordTrigger {
 
     private void verifyDocumentType(Record newRecord) {
 
-        QueryService queryService = ServiceLocator.locate(QueryService.class);
         String artDocVerId = newRecord.getValue("artwork_document__c", ValueType.STRING);
 
         // this query is designed to return a single result if the document identified by
@@ -58,7 +56,7 @@ public class SetArtworkDocumentRecordFields implements RecordTrigger {
             " where version_id = '"+ artDocVerId +"' " +
             "   and toName(type__v) = 'artwork__c'";
 
-        long recordCount = queryService.query(query).getResultCount();
+        long recordCount = QueryUtil.queryLegacy(query).getResultCount();
 
         if (recordCount == 0) {
             throw new RollbackException(ErrorType.INVALID_DOCUMENT,
@@ -70,14 +68,13 @@ public class SetArtworkDocumentRecordFields implements RecordTrigger {
     // Verify that this Artwork Document version is not used in a different PMF
     private void verifyNotDuplicate(Record newRecord) {
 
-        QueryService queryService = ServiceLocator.locate(QueryService.class);
         String artDocVerId = newRecord.getValue("artwork_document__c", ValueType.STRING);
 
         String query =
             "select id, (select id, name__v from pmf__cr) from pmf_artwork_document__c " +
             " where artwork_document__c = '"+ artDocVerId +"'";
 
-        QueryResponse queryResponse = queryService.query(query);
+        QueryResponse queryResponse = QueryUtil.queryLegacy(query);
         long recordCount = queryResponse.getResultCount();
 
         if (recordCount > 0) {
@@ -98,7 +95,6 @@ public class SetArtworkDocumentRecordFields implements RecordTrigger {
 
     private void populateDocumentFields(Record newRecord) {
 
-        QueryService queryService = ServiceLocator.locate(QueryService.class);
         String artDocVerId = newRecord.getValue("artwork_document__c", ValueType.STRING);
 
         String query = "select " +
@@ -109,7 +105,7 @@ public class SetArtworkDocumentRecordFields implements RecordTrigger {
             "from documents " +
             "where version_id = '" + artDocVerId + "'";
 
-        Iterator<QueryResult> iterator = queryService.query(query).streamResults().iterator();
+        Iterator<QueryResult> iterator = QueryUtil.queryLegacy(query).streamResults().iterator();
         QueryResult qr = (QueryResult) iterator.next();
 
         String docNbr = qr.getValue("document_number__v", ValueType.STRING);
@@ -1,6 +1,6 @@
 package com.veeva.vault.custom.triggers.pmf_artwork_document;
 
-import com.veeva.vault.custom.udc.PMF;
+import com.veeva.vault.custom.udc.RollupString;
 import com.veeva.vault.sdk.api.core.TriggerOrder;
 import com.veeva.vault.sdk.api.core.ValueType;
 import com.veeva.vault.sdk.api.data.*;
@@ -9,6 +9,9 @@ import com.veeva.vault.sdk.api.data.*;
  *
  * This trigger updates the PMF's "Artwork Document Number(s)" and "Packaging Numbers(s)" field.
  *
+ * The fields are updated incrementally from the inserted/deleted records (see RollupString), so bulk
+ * operations, across any number of PMF's, are supported.
+ *
  */
 
 @RecordTriggerInfo(object = "pmf_artwork_document__c", events = {RecordEvent.AFTER_INSERT, RecordEvent.AFTER_DELETE},
@@ -18,21 +21,28 @@ public class UpdatePmfPackagingNumbers implements RecordTrigger {
 
     public void execute(RecordTriggerContext recordTriggerContext) {
 
-      if (recordTriggerContext.getRecordChanges().size() > 1) {
-        return;  // support single-record operations only
-      }
+      RollupString packagingNumbers = RollupString.packagingNumbers();
+      RollupString documentNumbers = RollupString.artworkDocumentNumbers();
 
-      Record record = null;
+      boolean isDelete = recordTriggerContext.getRecordEvent() == RecordEvent.AFTER_DELETE;
 
-      if (recordTriggerContext.getRecordEvent() == RecordEvent.AFTER_DELETE) {
-        record = recordTriggerContext.getRecordChanges().get(0).getOld();
-      } else {
-        record = recordTriggerContext.getRecordChanges().get(0).getNew();
-      }
+      for (RecordChange recordChange : recordTriggerContext.getRecordChanges()) {
+
+        Record record = isDelete ? recordChange.getOld() : recordChange.getNew();
 
-      String pmfRecordId = record.getValue("pmf__c", ValueType.STRING);
+        String pmfRecordId = record.getValue("pmf__c", ValueType.STRING);
+        String packagingNumber = record.getValue("packaging_number__c", ValueType.STRING);
+        String documentNumber = record.getValue("document_number__c", ValueType.STRING);
 
-      PMF.setArtworkPackagingNumbers(pmfRecordId);
+        if (isDelete) {
+          packagingNumbers.remove(pmfRecordId, packagingNumber);
+          documentNumbers.remove(pmfRecordId, documentNumber);
+        } else {
+          packagingNumbers.add(pmfRecordId, packagingNumber);
+          documentNumbers.add(pmfRecordId, documentNumber);
+        }
+      }
+
+      RollupString.update(packagingNumbers, documentNumbers);
     }
 }
-
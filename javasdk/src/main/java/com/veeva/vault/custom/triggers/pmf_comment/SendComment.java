@@ -1,13 +1,11 @@
 package com.veeva.vault.custom.triggers.pmf_comment;
 
+import com.veeva.vault.custom.udc.PmfSnapshot;
 import com.veeva.vault.custom.udc.Util;
-import com.veeva.vault.sdk.api.core.ServiceLocator;
 import com.veeva.vault.sdk.api.core.StringUtils;
 import com.veeva.vault.sdk.api.core.ValueType;
 import com.veeva.vault.sdk.api.core.VaultCollections;
 import com.veeva.vault.sdk.api.data.*;
-import com.veeva.vault.sdk.api.query.QueryResponse;
-import com.veeva.vault.sdk.api.query.QueryService;
 
 import java.util.Set;
 
@@ -64,21 +62,11 @@ public class SendComment implements RecordTrigger {
 
     private String getPmfTitle(Record record) {
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
       String pmfId = record.getValue("pmf__c", ValueType.STRING);
-      String title;
 
-      QueryResponse queryResponse = queryService.query(
-        "select title__c from pmf__c where id = '"+pmfId+"'"
-      );
+      PmfSnapshot pmf = PmfSnapshot.get(pmfId);
 
-      if (queryResponse.getResultCount() > 0) {
-        title = queryResponse.streamResults().findFirst().get().getValue("title__c", ValueType.STRING);
-      } else {
-        title = "No title";
-      }
-
-      return title;
+      return pmf == null ? "No title" : pmf.title;
     }
 
 }
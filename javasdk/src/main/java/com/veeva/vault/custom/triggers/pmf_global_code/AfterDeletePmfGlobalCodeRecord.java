@@ -1,25 +1,24 @@
 package com.veeva.vault.custom.triggers.pmf_global_code;
 
+import com.veeva.vault.custom.udc.Logger;
 import com.veeva.vault.custom.udc.PmfGlobalCodes;
-import com.veeva.vault.sdk.api.core.ServiceLocator;
+import com.veeva.vault.custom.udc.QueryMetrics;
+import com.veeva.vault.custom.udc.VqlQuery;
 import com.veeva.vault.sdk.api.core.ValueType;
 import com.veeva.vault.sdk.api.core.VaultCollections;
 import com.veeva.vault.sdk.api.data.*;
-import com.veeva.vault.sdk.api.query.QueryResponse;
-import com.veeva.vault.sdk.api.query.QueryResult;
-import com.veeva.vault.sdk.api.query.QueryService;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
 
 import java.util.Iterator;
-import java.util.List;
-import java.util.Set;
 
 /**
  *
  * This trigger updates the PMF's list of Impacted Countries.
  *
- * The deletion of PMF Global Code records across multiple PMF's is expected to be a rare
- * occurrence if it happens at all.  Therefore, this trigger uses the simple approach of
- * embedding the query inside the 'for' loop.
+ * The deletion of PMF Global Code records may span many PMF's (e.g. a mass cleanup), so the PMF's are
+ * processed together: one query for the remaining PMF Global Codes of all of the PMF's, then one query for
+ * the country matrix, one for the current Impacted Countries, one batched delete and insert of PMF Impacted
+ * Country records, and one batched save of the PMF's display fields (see PmfGlobalCodes).
  *
  */
 
@@ -28,34 +27,33 @@ public class AfterDeletePmfGlobalCodeRecord implements RecordTrigger {
 
     public void execute(RecordTriggerContext recordTriggerContext) {
 
-      Set<String> pmfIds = VaultCollections.newSet();
+      QueryMetrics.begin("AfterDeletePmfGlobalCodeRecord");
+      try {
+        PmfGlobalCodes pmfGlobalCodes = new PmfGlobalCodes();
 
-      for (RecordChange inputRecord : recordTriggerContext.getRecordChanges()) {
-        pmfIds.add(inputRecord.getOld().getValue("pmf__c", ValueType.STRING));
-      }
-
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
-
-      for (String pmfId : pmfIds) {
-
-        List<String> globalCodeIds = VaultCollections.newList();
+        for (RecordChange inputRecord : recordTriggerContext.getRecordChanges()) {
+          String pmfId = inputRecord.getOld().getValue("pmf__c", ValueType.STRING);
+          if (!pmfGlobalCodes.getPmfRecordIds().contains(pmfId)) {
+            pmfGlobalCodes.add(pmfId, VaultCollections.newList());
+          }
+        }
 
-        QueryResponse qResponse = queryService.query(
-          "select global_code_sku__c from pmf_global_code__c where pmf__c = '"+pmfId+"'"
-        );
-        Iterator<QueryResult> iter = qResponse.streamResults().iterator();
+        Iterator<QueryExecutionResult> iter = VqlQuery.select("pmf__c", "global_code_sku__c")
+          .from("pmf_global_code__c")
+          .whereIn("pmf__c", pmfGlobalCodes.getPmfRecordIds())
+          .execute();
 
         while (iter.hasNext()) {
-          globalCodeIds.add(iter.next().getValue("global_code_sku__c", ValueType.STRING));
+          QueryExecutionResult queryResult = iter.next();
+          pmfGlobalCodes.getGlobalCodeRecordIds(queryResult.getValue("pmf__c", ValueType.STRING))
+            .add(queryResult.getValue("global_code_sku__c", ValueType.STRING));
         }
 
-        PmfGlobalCodes pmfGlobalCodes = new PmfGlobalCodes(pmfId, globalCodeIds);
-
         pmfGlobalCodes.updateImpactedCountries();
         pmfGlobalCodes.updatePmfGlobalCodesAndCountriesDisplay();
+      } finally {
+        QueryMetrics.end(new Logger());
+      }
 
-      } // end for
-    	
     } // end execute
 }
-
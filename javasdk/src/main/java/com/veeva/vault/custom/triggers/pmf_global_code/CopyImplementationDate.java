@@ -1,12 +1,11 @@
 package com.veeva.vault.custom.triggers.pmf_global_code;
 
-import com.veeva.vault.sdk.api.core.ServiceLocator;
+import com.veeva.vault.custom.udc.QueryUtil;
 import com.veeva.vault.sdk.api.core.TriggerOrder;
 import com.veeva.vault.sdk.api.core.ValueType;
 import com.veeva.vault.sdk.api.data.*;
 import com.veeva.vault.sdk.api.query.QueryResponse;
 import com.veeva.vault.sdk.api.query.QueryResult;
-import com.veeva.vault.sdk.api.query.QueryService;
 
 import java.util.Iterator;
 
@@ -38,8 +37,7 @@ public class CopyImplementationDate implements RecordTrigger {
 
         String pmfId = record.getValue("pmf__c", ValueType.STRING);
 
-        QueryService queryService = ServiceLocator.locate(QueryService.class);
-        QueryResponse queryResponse = queryService.query(
+        QueryResponse queryResponse = QueryUtil.queryLegacy(
           "select requested_implementation_date__c, implementation_date_meaning__c" +
           "  from pmf_global_code__c" +
           " where pmf__c = '"+pmfId+"'" +
@@ -1,25 +1,33 @@
 package com.veeva.vault.custom.triggers.pmf_global_code;
 
 import com.veeva.vault.custom.udc.ErrorType;
+import com.veeva.vault.custom.udc.Logger;
 import com.veeva.vault.custom.udc.PmfGlobalCodes;
+import com.veeva.vault.custom.udc.QueryMetrics;
+import com.veeva.vault.custom.udc.VqlQuery;
 import com.veeva.vault.sdk.api.core.*;
 import com.veeva.vault.sdk.api.data.*;
-import com.veeva.vault.sdk.api.query.QueryService;
-import com.veeva.vault.sdk.api.query.QueryResponse;
-import com.veeva.vault.sdk.api.query.QueryResult;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
- * Identify and collect all of the Global Codes (SKUs) related to a PMF, and most importantly,
- * verify that all of the Global Codes reference a single Logistic Site.
- * If more than one Logistic Site are referenced by the collection of PMF Global Codes,
+ * Identify and collect all of the Global Codes (SKUs) related to each PMF, and most importantly,
+ * verify that all of the Global Codes of a PMF reference a single Logistic Site.
+ * If more than one Logistic Site are referenced by the collection of PMF Global Codes of any PMF,
  * then throw a RollbackException.
  *
  * The collection of Global Codes is used downstream to update the Logistic Site field
  * on the PMF, and to update the list of Impacted Countries.
+ *
+ * A bulk load may include Global Codes for many PMF's.  The record changes are partitioned by PMF,
+ * but the queries are made once for all of the PMF's.
+ *
+ * The Global Codes added to and removed from each PMF by the record changes are also collected, so that
+ * the PMF's Impacted Countries can be maintained incrementally.
  */
 
 @RecordTriggerInfo(object = "pmf_global_code__c", events = {RecordEvent.BEFORE_INSERT, RecordEvent.BEFORE_UPDATE},
@@ -30,34 +38,24 @@ public class GatherGlobalCodes implements RecordTrigger {
 
       RecordEvent recordEvent = recordTriggerContext.getRecordEvent();
 
-      String pmfId = null;
+      // key: PMF record id; value: list of Global Code (SKU) record id's
+      Map<String, List<String>> globalCodeRecordIds = VaultCollections.newMap();
 
-      List<String> globalCodeRecordIds = VaultCollections.newList();
-      Set<String> logisticSiteRecordIds = VaultCollections.newSet();
+      // key: PMF record id; value: list of Global Code (SKU) record id's added to/removed from the PMF
+      Map<String, List<String>> addedGlobalCodeRecordIds = VaultCollections.newMap();
+      Map<String, List<String>> removedGlobalCodeRecordIds = VaultCollections.newMap();
 
-      List<String> updatedRecordIds = null;
-      if (recordEvent == RecordEvent.BEFORE_UPDATE) {
-        updatedRecordIds = VaultCollections.newList();
-      }
+      Set<String> updatedRecordIds = VaultCollections.newSet();
 
-      ////////////////////////////////////////////////////////////////////////////
-      // First, get all the new or updated global code record IDs into the set...
-      ////////////////////////////////////////////////////////////////////////////
+      ////////////////////////////////////////////////////////////////////////////////////
+      // First, get all the new or updated global code record IDs into the PMF's lists...
+      ////////////////////////////////////////////////////////////////////////////////////
 
       for (RecordChange inputRecord : recordTriggerContext.getRecordChanges()) {
 
         Record newRecord = inputRecord.getNew();
 
-        String thisPmfId = newRecord.getValue("pmf__c", ValueType.STRING);
-
-        if (pmfId == null) {
-          pmfId = thisPmfId;
-        } else {
-          if (!thisPmfId.equals(pmfId)) {
-            throw new RollbackException(ErrorType.UPDATE_DENIED,
-              "Bulk loads of Global Codes across multiple PMF's is not allowed.");
-          }
-        }
+        String pmfId = newRecord.getValue("pmf__c", ValueType.STRING);
 
         String globalCodeRecordId = newRecord.getValue("global_code_sku__c", ValueType.STRING);
 
@@ -70,86 +68,112 @@ public class GatherGlobalCodes implements RecordTrigger {
           }
           String recordId = newRecord.getValue("id", ValueType.STRING);
           updatedRecordIds.add(recordId);
+          if (oldGlobalCodeRecordId != null) {
+            getList(removedGlobalCodeRecordIds, pmfId).add(oldGlobalCodeRecordId);
+          }
         }
 
-        globalCodeRecordIds.add(globalCodeRecordId);
+        getList(globalCodeRecordIds, pmfId).add(globalCodeRecordId);
+        getList(addedGlobalCodeRecordIds, pmfId).add(globalCodeRecordId);
       } // end for
 
       if (globalCodeRecordIds.size() == 0) {
         return; // nothing to do
       }
 
-      ///////////////////////////////////////////////////////////////////////////////////
-      // Now, add the Global Codes from the existing Impacted Global Codes to the set...
-      ///////////////////////////////////////////////////////////////////////////////////
-
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
-      StringBuilder queryBuilder;  // we'll use these variables a couple of times
-      String query;
-      QueryResponse queryResponse;
-      Iterator<QueryResult> qrIterator;
-
-      queryBuilder = new StringBuilder(
-        "select id, global_code_sku__c from pmf_global_code__c where pmf__c = '"
-      ).append(pmfId).append("'");
-
-      // exclude the Impacted Global Codes that are being updated
-      if (recordEvent == RecordEvent.BEFORE_UPDATE) {
-        Iterator<String> iter = updatedRecordIds.iterator();
-        while (iter.hasNext()) {
-          queryBuilder.append(" and id != '").append(iter.next()).append("'");
+      QueryMetrics.begin("GatherGlobalCodes");
+      try {
+        ///////////////////////////////////////////////////////////////////////////////////
+        // Now, add the Global Codes from the existing Impacted Global Codes to the lists,
+        // excluding the Impacted Global Codes that are being updated...
+        ///////////////////////////////////////////////////////////////////////////////////
+
+        Iterator<QueryExecutionResult> pmfGlobalCodeIterator = VqlQuery.select("id", "pmf__c", "global_code_sku__c")
+          .from("pmf_global_code__c")
+          .whereIn("pmf__c", globalCodeRecordIds.keySet())
+          .execute();
+
+        while (pmfGlobalCodeIterator.hasNext()) {
+          QueryExecutionResult queryResult = pmfGlobalCodeIterator.next();
+          if (!updatedRecordIds.contains(queryResult.getValue("id", ValueType.STRING))) {
+            getList(globalCodeRecordIds, queryResult.getValue("pmf__c", ValueType.STRING))
+              .add(queryResult.getValue("global_code_sku__c", ValueType.STRING));
+          }
         }
-      }
 
-      query = queryBuilder.toString();
+        /////////////////////////////////////////////////////////////////////////////////////////
+        // Next, query the Global Code (SKU) Object to get the Logistic Sites of all of the
+        // Global Codes...
+        /////////////////////////////////////////////////////////////////////////////////////////
 
-      queryResponse = queryService.query(query);
-      qrIterator = queryResponse.streamResults().iterator();
+        Set<String> allGlobalCodeRecordIds = VaultCollections.newSet();
+        for (List<String> pmfGlobalCodeRecordIds : globalCodeRecordIds.values()) {
+          allGlobalCodeRecordIds.addAll(pmfGlobalCodeRecordIds);
+        }
 
-      while (qrIterator.hasNext()) {
-        String globalCodeRecordId = qrIterator.next().getValue("global_code_sku__c", ValueType.STRING);
-        globalCodeRecordIds.add(globalCodeRecordId);
-      }
+        // key: Global Code (SKU) record id; value: Logistic Site record id
+        Map<String, String> globalCodeLogisticSites = VaultCollections.newMap();
+
+        Iterator<QueryExecutionResult> logisticSiteIterator = VqlQuery.select("id", "logistic_site__c")
+          .from("global_code_sku__c")
+          .whereIn("id", allGlobalCodeRecordIds)
+          .execute();
 
-      /////////////////////////////////////////////////////////////////////////////////////////
-      // Next, query the Global Code (SKU) Object to get the Logistic Sites into a set, and
-      // test whether the Set contains a single Logistic Site...
-      /////////////////////////////////////////////////////////////////////////////////////////
-
-      queryBuilder = new StringBuilder("select logistic_site__c from global_code_sku__c where id contains (");
-      Iterator<String> globalCodeRecordIdsIterator = globalCodeRecordIds.iterator();
-      while (globalCodeRecordIdsIterator.hasNext()) {
-        queryBuilder.append("'").append(globalCodeRecordIdsIterator.next()).append("'");
-        if (globalCodeRecordIdsIterator.hasNext()) {
-          queryBuilder.append(", ");
+        while (logisticSiteIterator.hasNext()) {
+          QueryExecutionResult queryResult = logisticSiteIterator.next();
+          globalCodeLogisticSites.put(
+            queryResult.getValue("id", ValueType.STRING),
+            queryResult.getValue("logistic_site__c", ValueType.STRING)
+          );
         }
-      }
-      queryBuilder.append(")");
-      query = queryBuilder.toString();
 
-      queryResponse = queryService.query(query);
-      qrIterator = queryResponse.streamResults().iterator();
+        /////////////////////////////////////////////////////////////////////////////////////////
+        // ...and test whether each PMF's Global Codes reference a single Logistic Site, and
+        // finally, create a GlobalCodes object for downstream processing...
+        /////////////////////////////////////////////////////////////////////////////////////////
 
-      while (qrIterator.hasNext()) {
-        String logisticSiteRecordId = qrIterator.next().getValue("logistic_site__c", ValueType.STRING);
-        logisticSiteRecordIds.add(logisticSiteRecordId);
-      }
+        PmfGlobalCodes globalCodes = new PmfGlobalCodes();
 
-      if (logisticSiteRecordIds.size() > 1) {
-        throw new RollbackException(ErrorType.UPDATE_DENIED,
-          "Impacted Global Codes reference more than one Logistic Site."
-        );
-      }
+        for (Map.Entry<String, List<String>> entry : globalCodeRecordIds.entrySet()) {
 
-      /////////////////////////////////////////////////////////////////////
-      // Finally, create a GlobalCodes object for downstream processing...
-      /////////////////////////////////////////////////////////////////////
-      String logisticSiteRecordId = logisticSiteRecordIds.iterator().next();
+          String pmfId = entry.getKey();
 
-      PmfGlobalCodes globalCodes = new PmfGlobalCodes(pmfId, globalCodeRecordIds, logisticSiteRecordId);
+          Set<String> logisticSiteRecordIds = VaultCollections.newSet();
+          for (String globalCodeRecordId : entry.getValue()) {
+            if (globalCodeLogisticSites.containsKey(globalCodeRecordId)) {
+              logisticSiteRecordIds.add(globalCodeLogisticSites.get(globalCodeRecordId));
+            }
+          }
 
-      RequestContext.get().setValue(PmfGlobalCodes.ContextName, globalCodes);
+          if (logisticSiteRecordIds.size() > 1) {
+            throw new RollbackException(ErrorType.UPDATE_DENIED,
+              "Impacted Global Codes reference more than one Logistic Site." +
+                (globalCodeRecordIds.size() > 1 ? " PMF ID: " + pmfId : "")
+            );
+          }
+
+          if (logisticSiteRecordIds.size() > 0) {
+            globalCodes.add(pmfId, entry.getValue(), logisticSiteRecordIds.iterator().next());
+          } else {
+            globalCodes.add(pmfId, entry.getValue());  // no Logistic Site to set; leave the PMF's as it is
+          }
+          globalCodes.addChanges(pmfId, getList(addedGlobalCodeRecordIds, pmfId), getList(removedGlobalCodeRecordIds, pmfId));
+        }
+
+        RequestContext.get().setValue(PmfGlobalCodes.ContextName, globalCodes);
+      } finally {
+        QueryMetrics.end(new Logger());
+      }
 
     } // end execute()
-}
 
+    // Return the list in the map for the key, adding an empty list for the key if there is none
+    private List<String> getList(Map<String, List<String>> map, String key) {
+      List<String> list = map.get(key);
+      if (list == null) {
+        list = VaultCollections.newList();
+        map.put(key, list);
+      }
+      return list;
+    }
+}
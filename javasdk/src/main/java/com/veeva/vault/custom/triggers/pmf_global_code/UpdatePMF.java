@@ -1,12 +1,16 @@
 package com.veeva.vault.custom.triggers.pmf_global_code;
 
+import com.veeva.vault.custom.udc.Logger;
 import com.veeva.vault.custom.udc.PmfGlobalCodes;
+import com.veeva.vault.custom.udc.PmfWriteBuffer;
+import com.veeva.vault.custom.udc.QueryMetrics;
 import com.veeva.vault.sdk.api.core.RequestContext;
 import com.veeva.vault.sdk.api.data.*;
 
 /**
- * Update the Logistic Site on the PMF, if applicable.
+ * Update the Logistic Site on the PMF(s), if applicable.
  * Update the PMF's list of Impacted Countries.
+ * A bulk load may include Global Codes for many PMF's; all of them are updated together.
  */
 
 @RecordTriggerInfo(object = "pmf_global_code__c", events = {RecordEvent.AFTER_INSERT, RecordEvent.AFTER_UPDATE})
@@ -21,9 +25,16 @@ public class UpdatePMF implements RecordTrigger {
 
       PmfGlobalCodes pmfGlobalCodes = RequestContext.get().getValue(PmfGlobalCodes.ContextName, PmfGlobalCodes.class);
       if (pmfGlobalCodes != null) {
-        pmfGlobalCodes.updatePmfLogisticSite();
-        pmfGlobalCodes.updateImpactedCountries();
-        pmfGlobalCodes.updatePmfGlobalCodesAndCountriesDisplay();
+        QueryMetrics.begin("UpdatePMF");
+        try {
+          PmfWriteBuffer.begin();  // the Logistic Site and display fields are saved together, once per PMF
+          pmfGlobalCodes.updatePmfLogisticSite();
+          pmfGlobalCodes.updateImpactedCountries();
+          pmfGlobalCodes.updatePmfGlobalCodesAndCountriesDisplay();
+          PmfWriteBuffer.end();
+        } finally {
+          QueryMetrics.end(new Logger());
+        }
       }
 
     }
@@ -13,7 +13,6 @@ import com.veeva.vault.sdk.api.data.*;
  * Validate inserts and updates the "PMF Global Code" object.
  *
  * Validations performed:
- *   - Bulk loads not allowed across multiple PMFs
  *   - if PMF Type != Global Renovation Project, then "Requested Implementation Date" and
  *     "Implementation Date Meaning" are required
  *   - On update, allow changes to "Global Code (SKU)" //and "Estimated Residual Cost" only at appropriate statuses
@@ -26,18 +25,7 @@ public class ValidateRecords implements RecordTrigger {
 
     public void execute(RecordTriggerContext recordTriggerContext) {
 
-      RecordEvent recordEvent = recordTriggerContext.getRecordEvent();
-
-      String pmfId = recordTriggerContext.getRecordChanges().get(0).getNew().getValue("pmf__c", ValueType.STRING);
-      String errorType = recordEvent == RecordEvent.BEFORE_UPDATE ? ErrorType.UPDATE_DENIED : ErrorType.INSERT_DENIED;
-
-      for (RecordChange inputRecord : recordTriggerContext.getRecordChanges()) {
-        Record newRecord = inputRecord.getNew();
-        String thisPmfId = newRecord.getValue("pmf__c", ValueType.STRING);
-        if (!thisPmfId.equals(pmfId)) {
-          throw new RollbackException(errorType, "Bulk load of Global Codes across multiple PMF's is not allowed.");
-        }
-      }
+      // Bulk loads, including loads across multiple PMF's, are allowed; see GatherGlobalCodes.
 
       if (recordTriggerContext.getRecordChanges().size() > 1) {
         return;  // the remaining checks will be performed only on single record updates
@@ -45,6 +33,8 @@ public class ValidateRecords implements RecordTrigger {
 
       if (recordTriggerContext.getRecordEvent() == RecordEvent.BEFORE_UPDATE) {
 
+        String pmfId = recordTriggerContext.getRecordChanges().get(0).getNew().getValue("pmf__c", ValueType.STRING);
+
         String pmfStatus = PMF.getStatus(pmfId);
 
         Record newRecord = recordTriggerContext.getRecordChanges().get(0).getNew();
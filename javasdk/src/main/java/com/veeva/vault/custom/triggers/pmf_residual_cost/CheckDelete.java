@@ -3,12 +3,11 @@ package com.veeva.vault.custom.triggers.pmf_residual_cost;
 import com.veeva.vault.custom.udc.ErrorType;
 import com.veeva.vault.custom.udc.PMF;
 import com.veeva.vault.custom.udc.PMFStatus;
+import com.veeva.vault.custom.udc.QueryUtil;
 import com.veeva.vault.sdk.api.core.RollbackException;
-import com.veeva.vault.sdk.api.core.ServiceLocator;
 import com.veeva.vault.sdk.api.core.ValueType;
 import com.veeva.vault.sdk.api.data.*;
 import com.veeva.vault.sdk.api.query.QueryResponse;
-import com.veeva.vault.sdk.api.query.QueryService;
 
 /**
  * This trigger disallows deletion of records in the PMF Residual Cost (pmf_residual_cost__c) in certain
@@ -45,10 +44,9 @@ public class CheckDelete implements RecordTrigger {
 
     private String getPmfId(Record record) {
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
       String pmfGlobalCodeId = record.getValue("pmf_global_code_sku__c", ValueType.STRING);
 
-      QueryResponse queryResponse = queryService.query(
+      QueryResponse queryResponse = QueryUtil.queryLegacy(
         "select pmf__c from pmf_global_code__c where id = '"+pmfGlobalCodeId+"'"
       );
 
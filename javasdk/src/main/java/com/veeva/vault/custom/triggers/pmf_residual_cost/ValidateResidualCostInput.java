@@ -1,16 +1,15 @@
 package com.veeva.vault.custom.triggers.pmf_residual_cost;
 
 import com.veeva.vault.custom.udc.ErrorType;
-import com.veeva.vault.custom.udc.PMF;
+import com.veeva.vault.custom.udc.PmfSnapshot;
 import com.veeva.vault.custom.udc.PMFStatus;
+import com.veeva.vault.custom.udc.QueryUtil;
 import com.veeva.vault.custom.udc.Util;
 import com.veeva.vault.sdk.api.core.RequestContext;
 import com.veeva.vault.sdk.api.core.RollbackException;
-import com.veeva.vault.sdk.api.core.ServiceLocator;
 import com.veeva.vault.sdk.api.core.ValueType;
 import com.veeva.vault.sdk.api.data.*;
 import com.veeva.vault.sdk.api.query.QueryResponse;
-import com.veeva.vault.sdk.api.query.QueryService;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
@@ -64,8 +63,9 @@ public class ValidateResidualCostInput implements RecordTrigger {
       Record record = recordTriggerContext.getRecordChanges().get(0).getNew();
 
       String pmfId = getPmfId(record);
-      String pmfStatus = PMF.getStatus(pmfId);
-      String pmfRequestorId = PMF.getRequestor(pmfId);
+      PmfSnapshot pmf = PmfSnapshot.get(pmfId);
+      String pmfStatus = pmf.state;
+      String pmfRequestorId = pmf.requestorId;
       String currentUserId = RequestContext.get().getCurrentUserId();
       String costStatus = Util.getSinglePicklistValue(
         record.getValue("cost_status__c", ValueType.PICKLIST_VALUES)
@@ -146,10 +146,9 @@ public class ValidateResidualCostInput implements RecordTrigger {
 
     private String getPmfId(Record record) {
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
       String pmfGlobalCodeId = record.getValue("pmf_global_code_sku__c", ValueType.STRING);
 
-      QueryResponse queryResponse = queryService.query(
+      QueryResponse queryResponse = QueryUtil.queryLegacy(
         "select pmf__c from pmf_global_code__c where id = '"+pmfGlobalCodeId+"'"
       );
 
@@ -235,12 +234,11 @@ public class ValidateResidualCostInput implements RecordTrigger {
 
     private boolean globalCodeHasExistingResidualCostInStatus(Record record, String status) {
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
 
       String recordId = record.getValue("id", ValueType.STRING);
       String pmfGlobalCodeId = record.getValue("pmf_global_code_sku__c", ValueType.STRING);
 
-      QueryResponse queryResponse = queryService.query(
+      QueryResponse queryResponse = QueryUtil.queryLegacy(
         "select id from pmf_residual_cost__c " +
         " where pmf_global_code_sku__c = '"+pmfGlobalCodeId+"'" +
         "   and cost_status__c = '"+status+"'" +
@@ -252,12 +250,11 @@ public class ValidateResidualCostInput implements RecordTrigger {
 
     private boolean globalCodeHasExistingResidualCosts(Record record) {
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
 
       String recordId = record.getValue("id", ValueType.STRING);
       String pmfGlobalCodeId = record.getValue("pmf_global_code_sku__c", ValueType.STRING);
 
-      QueryResponse queryResponse = queryService.query(
+      QueryResponse queryResponse = QueryUtil.queryLegacy(
         "select id from pmf_residual_cost__c " +
         " where pmf_global_code_sku__c = '"+pmfGlobalCodeId+"'" +
         "   and id != '"+recordId+"'"
@@ -2,8 +2,8 @@ package com.veeva.vault.custom.triggers.pmf_user_role_setup;
 
 import com.veeva.vault.custom.udc.ErrorType;
 import com.veeva.vault.custom.udc.PMFStatus;
-import com.veeva.vault.custom.udc.QueryUtil;
 import com.veeva.vault.custom.udc.Util;
+import com.veeva.vault.custom.udc.VqlQuery;
 import com.veeva.vault.sdk.api.core.*;
 import com.veeva.vault.sdk.api.data.*;
 import com.veeva.vault.sdk.api.query.QueryExecutionResult;
@@ -116,8 +116,7 @@ public class UpdatePmfRoles implements RecordTrigger {
   ) {
     LogService logService = ServiceLocator.locate(LogService.class);
 
-    StringBuilder query = new StringBuilder();
-    query.append("select id from pmf__c");
+    VqlQuery query = VqlQuery.select("id").from("pmf__c");
 
     List<String> statuses = VaultCollections.newList(); // to filter for PMF's in specific statuses
     statuses.add(PMFStatus.DRAFT);
@@ -128,23 +127,23 @@ public class UpdatePmfRoles implements RecordTrigger {
       String USCountryId = Util.getUSCountryId();
 
       if (country == null) {
-        query.append(" where requestor_country__c != '"+USCountryId+"'");
+        query.whereNotEquals("requestor_country__c", USCountryId);
         if (region != null) {
-          query.append(" and requestor_country__c contains " + Util.vqlContains(Util.getCountriesInRegion(region)));
+          query.whereIn("requestor_country__c", Util.getCountriesInRegion(region));
         }
       } else {
-        query.append(" where requestor_country__c = '"+country+"'");
+        query.whereEquals("requestor_country__c", country);
       }
 
       if (brand != null) {
-        query.append(" and brand__c = '"+brand+"'");
+        query.whereEquals("brand__c", brand);
       }
 
       if (businessUnit != null) {
-        query.append(" and business_unit__c = '"+businessUnit+"'");
+        query.whereEquals("business_unit__c", businessUnit);
       }
 
-      query.append(" and state__v contains " + Util.vqlContains(statuses));
+      query.whereIn("state__v", statuses);
 
     } else if (roleName.equals("pmf_plant_reviewer__c")) {
 
@@ -154,16 +153,18 @@ public class UpdatePmfRoles implements RecordTrigger {
       statuses.add(PMFStatus.IN_PLANT_REVIEW);
 
       query
-        .append(" where logistic_site__c = '"+logisticSite+"'")
-        .append(" and state__v contains " + Util.vqlContains(statuses));
+        .whereEquals("logistic_site__c", logisticSite)
+        .whereIn("state__v", statuses);
 
     } else {
       throw new RollbackException(ErrorType.OPERATION_FAILED, "Invalid role name: " + roleName);
     }
 
-    logService.info(query.toString());
+    for (String vql : query.getQueries()) {
+      logService.info(vql);
+    }
 
-    Iterator<QueryExecutionResult> iter = QueryUtil.query(query.toString()).streamResults().iterator();
+    Iterator<QueryExecutionResult> iter = query.execute();
     List<String> pmfList = VaultCollections.newList();
 
     while (iter.hasNext()) {
@@ -1,16 +1,12 @@
 package com.veeva.vault.custom.triggers.vproc_parameter_set;
 
-import com.veeva.vault.custom.udc.Util;
-import com.veeva.vault.custom.udc.VaultField;
+import com.veeva.vault.custom.udc.ArtworkFieldCopyPlan;
+import com.veeva.vault.custom.udc.QueryUtil;
 import com.veeva.vault.sdk.api.core.ServiceLocator;
 import com.veeva.vault.sdk.api.core.TriggerOrder;
 import com.veeva.vault.sdk.api.core.ValueType;
-import com.veeva.vault.sdk.api.core.VaultCollections;
 import com.veeva.vault.sdk.api.data.*;
 import com.veeva.vault.sdk.api.json.JsonService;
-import com.veeva.vault.sdk.api.query.QueryService;
-
-import java.util.List;
 
 /**
  *
@@ -26,18 +22,30 @@ public class VerifyPmfParameters implements RecordTrigger {
       for (RecordChange inputRecord : recordTriggerContext.getRecordChanges()) {
 
         Record newRecord = inputRecord.getNew();
+        Record oldRecord = inputRecord.getOld();
 
         String moduleName = newRecord.getValue("name__v", ValueType.STRING);
 
         if (moduleName.equals("pmf")) {
-          verifyParameters(newRecord);
-          verifyArtworkFields(newRecord);
+          // updates that only save the reference data snapshot (see ReferenceDataSnapshot) need no verification
+          if (isChanged(oldRecord, newRecord, "parameters__c")) {
+            verifyParameters(newRecord);
+          }
+          if (isChanged(oldRecord, newRecord, "artwork_fields__c")) {
+            verifyArtworkFields(newRecord);
+          }
         }
 
       }
     	
     }
 
+    private boolean isChanged(Record oldRecord, Record newRecord, String fieldName) {
+      String oldValue = oldRecord.getValue(fieldName, ValueType.STRING);
+      String newValue = newRecord.getValue(fieldName, ValueType.STRING);
+      return oldValue == null ? newValue != null : !oldValue.equals(newValue);
+    }
+
     private void verifyParameters(Record record) {
       JsonService jsonService = ServiceLocator.locate(JsonService.class);
       String parameters = record.getValue("parameters__c", ValueType.STRING);
@@ -46,21 +54,15 @@ public class VerifyPmfParameters implements RecordTrigger {
 
     private void verifyArtworkFields(Record record) {
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
 
       String artworkFieldsString = record.getValue("artwork_fields__c", ValueType.STRING);
 
       // This will blow up if the string is invalid...
-      List<VaultField> artworkFields = Util.parseVaultFieldInfo(artworkFieldsString);
-
-      List <String> fieldNames = VaultCollections.newList();
-      for (VaultField field : artworkFields) {
-        fieldNames.add(field.fieldName);
-      }
+      ArtworkFieldCopyPlan artworkFields = ArtworkFieldCopyPlan.compile(artworkFieldsString);
 
       // This will blow up if any field names are wrong...
-      queryService.query(
-        "select "+Util.stringifyList(fieldNames)+" from documents where type__v = 'artwork__c' and id = 1"
+      QueryUtil.queryLegacy(
+        "select "+artworkFields.getSelectList()+" from documents where type__v = 'artwork__c' and id = 1"
       );
 
     }
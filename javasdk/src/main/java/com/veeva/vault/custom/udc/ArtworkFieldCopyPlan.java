@@ -0,0 +1,113 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.RequestContext;
+import com.veeva.vault.sdk.api.core.RequestContextValue;
+import com.veeva.vault.sdk.api.core.RollbackException;
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.ValueType;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.document.DocumentVersion;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
+
+import java.util.List;
+
+/**
+ * The Artwork document fields copied from an approved Artwork version to its new Draft version (see
+ * UpVersionArtworks), compiled from the 'artwork_fields__c' field of the 'pmf' Parameter Set (see
+ * VaultField for the format).
+ *
+ * The field definitions are read and parsed once per request, and the VQL select list is built once, so
+ * that copying the fields of any number of documents is a single loop over the compiled fields.
+ *
+ * Usage:
+ *
+ *    ArtworkFieldCopyPlan plan = ArtworkFieldCopyPlan.get();
+ *    ... "select version_id, " + plan.getSelectList() + " from documents where ..."
+ *    String missingField = plan.copy(queryResult, newVersion);
+ */
+
+@UserDefinedClassInfo(name = "pmf_artworkfieldcopyplan__c")
+public class ArtworkFieldCopyPlan implements RequestContextValue {
+
+    public static final String ContextName = "pmfArtworkFieldCopyPlan";
+
+    private List<String> fieldNames;
+    private List<ValueType> valueTypes;
+    private List<Boolean> required;
+    private String selectList;
+
+    public ArtworkFieldCopyPlan() {
+      //parameter-less constructor required by the system
+      this.fieldNames = VaultCollections.newList();
+      this.valueTypes = VaultCollections.newList();
+      this.required = VaultCollections.newList();
+      this.selectList = "";
+    }
+
+    /**
+     * Return the plan for the current request, reading and compiling the field definitions from the 'pmf'
+     * Parameter Set if this has not already been done.
+     * @return ArtworkFieldCopyPlan
+     */
+    public static ArtworkFieldCopyPlan get() {
+      ArtworkFieldCopyPlan plan = RequestContext.get().getValue(ContextName, ArtworkFieldCopyPlan.class);
+      if (plan == null) {
+        QueryExecutionResult queryResult = QueryUtil.queryOne(
+          "select LongText(artwork_fields__c) from vproc_parameter_set__c where name__v = 'pmf'"
+        );
+        if (queryResult == null) {
+          throw new RollbackException(ErrorType.OPERATION_FAILED, "The 'pmf' Parameter Set was not found.");
+        }
+        plan = compile(queryResult.getValue("artwork_fields__c", ValueType.STRING));
+        RequestContext.get().setValue(ContextName, plan);
+      }
+      return plan;
+    }
+
+    /**
+     * Compile a plan from field definitions.  Throws a RollbackException if any definition is invalid.
+     * @param fieldInfo - String.  One field definition per line; see Util.parseVaultFieldInfo()
+     * @return ArtworkFieldCopyPlan
+     */
+    public static ArtworkFieldCopyPlan compile(String fieldInfo) {
+      ArtworkFieldCopyPlan plan = new ArtworkFieldCopyPlan();
+      for (VaultField field : Util.parseVaultFieldInfo(fieldInfo)) {
+        plan.fieldNames.add(field.fieldName);
+        plan.valueTypes.add(field.valueType);
+        plan.required.add(field.required);
+      }
+      plan.selectList = Util.stringifyList(plan.fieldNames);
+      return plan;
+    }
+
+    /**
+     * Return the fields as a VQL select list, e.g. "brand__c, barcode_number__c".
+     * @return String
+     */
+    public String getSelectList() {
+      return this.selectList;
+    }
+
+    public int size() {
+      return this.fieldNames.size();
+    }
+
+    /**
+     * Copy the values of the plan's fields from a query result to a document version.  Copying stops at
+     * the first required field with no value.
+     * @param source - QueryExecutionResult.  Must include all of the plan's fields (see getSelectList())
+     * @param target - DocumentVersion
+     * @return String - the name of the first required field with no value, or null if all fields were copied
+     */
+    public String copy(QueryExecutionResult source, DocumentVersion target) {
+      for (int i = 0; i < this.fieldNames.size(); i++) {
+        String fieldName = this.fieldNames.get(i);
+        Object value = source.getValue(fieldName, this.valueTypes.get(i));
+        if (value == null && this.required.get(i)) {
+          return fieldName;
+        }
+        target.setValue(fieldName, value);
+      }
+      return null;
+    }
+}
@@ -0,0 +1,109 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.job.JobLogger;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accumulates documents on which a Document Lifecycle User Action is to be executed, and executes the
+ * action on all of them with as few calls to the "Initiate Bulk Document User Actions" API as possible
+ * (see VaultAPI.initiateBulkDocumentUserAction).  The bulk API requires that all documents in a request
+ * are in the same lifecycle and state, so documents are grouped by lifecycle and state.
+ *
+ * The action is executed on the latest version of each document.  Failures are reported per document
+ * version to a JobTaskErrors, and each document is counted as a processed item.
+ *
+ * Usage:
+ *
+ *    DocumentUserActionBatch lockActions = new DocumentUserActionBatch("pmf_local_connection__c", "lock__c", logger);
+ *    lockActions.add(docVersionId, "general_lifecycle__c", "draft__c");
+ *    ...
+ *    lockActions.execute(errors);
+ */
+
+@UserDefinedClassInfo
+public class DocumentUserActionBatch {
+
+    private String connection;
+    private String actionName;
+    private JobLogger logger;
+    private Map<String, List<String>> docVersionIds;  // key: lifecycle + "|" + state
+    private List<String> groupKeys;  // in the order first added
+
+    public DocumentUserActionBatch(String connection, String actionName, JobLogger logger) {
+      this.connection = connection;
+      this.actionName = actionName;
+      this.logger = logger;
+      this.docVersionIds = VaultCollections.newMap();
+      this.groupKeys = VaultCollections.newList();
+    }
+
+    /**
+     * Add a document to the batch.
+     * @param docVersionId - String - version ID of the latest version of the document
+     * @param lifecycle - String - API name of the document's lifecycle
+     * @param state - String - API name of the document's current lifecycle state
+     */
+    public void add(String docVersionId, String lifecycle, String state) {
+      String groupKey = lifecycle + "|" + state;
+      List<String> group = this.docVersionIds.get(groupKey);
+      if (group == null) {
+        group = VaultCollections.newList();
+        this.docVersionIds.put(groupKey, group);
+        this.groupKeys.add(groupKey);
+      }
+      group.add(docVersionId);
+    }
+
+    /**
+     * Execute the action on all of the documents in the batch, logging the result for each document, and
+     * recording each failure against the document's version ID.
+     * @param errors - JobTaskErrors
+     */
+    public void execute(JobTaskErrors errors) {
+
+      VaultAPI vaultAPI = new VaultAPI(this.connection, this.logger);
+
+      for (String groupKey : this.groupKeys) {
+
+        String lifecycle = groupKey.substring(0, groupKey.indexOf('|'));
+        String state = groupKey.substring(groupKey.indexOf('|') + 1);
+        List<String> groupVersionIds = this.docVersionIds.get(groupKey);
+
+        List<String> docIds = VaultCollections.newList();
+        for (String docVersionId : groupVersionIds) {
+          docIds.add(DocVersionIdParts.id(docVersionId));
+        }
+
+        this.logger.log(
+          "Executing '"+this.actionName+"' on "+docIds.size()+" document(s) in lifecycle "+lifecycle+", state "+state
+        );
+
+        Map<String, String> docErrors;
+        try {
+          docErrors = vaultAPI.initiateBulkDocumentUserAction(docIds, lifecycle, state, this.actionName);
+        } catch (RuntimeException e) {
+          docErrors = VaultCollections.newMap();
+          for (String docId : docIds) {
+            docErrors.put(docId, e.getMessage());
+          }
+        }
+
+        for (String docVersionId : groupVersionIds) {
+          errors.countItem();
+          String docError = docErrors.get(DocVersionIdParts.id(docVersionId));
+          if (docError == null) {
+            this.logger.log("Executed '"+this.actionName+"' on document " + docVersionId);
+          } else {
+            errors.addError(docVersionId, "Failed to execute '"+this.actionName+"' due to: " + docError);
+          }
+        }
+      }
+
+      this.docVersionIds = VaultCollections.newMap();
+      this.groupKeys = VaultCollections.newList();
+    }
+}
@@ -0,0 +1,148 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.job.JobCompletionContext;
+import com.veeva.vault.sdk.api.job.JobLogger;
+import com.veeva.vault.sdk.api.job.JobTask;
+import com.veeva.vault.sdk.api.job.JobValueType;
+import com.veeva.vault.sdk.api.job.TaskOutput;
+import com.veeva.vault.sdk.api.job.TaskState;
+
+import java.util.List;
+
+/**
+ * Collects the failures of the individual job items processed by a job task, so that an exception on one
+ * item is logged and recorded against that item, and the remaining items in the task are still processed.
+ * This allows a job to run with a Chunk Size greater than 1.
+ *
+ * Note that an item's failure is isolated only from the other items' processing; any records or documents
+ * the failed item saved before the exception are not rolled back.
+ *
+ * Usage:
+ *
+ *    JobTaskErrors errors = new JobTaskErrors(logger);
+ *    for (JobItem jobItem : items) {
+ *      String docVersionId = jobItem.getValue("docVersionId", JobValueType.STRING);
+ *      errors.run(docVersionId, () -> processDocument(docVersionId));
+ *    }
+ *    errors.setTaskOutput(jobProcessContext.getCurrentTask().getTaskOutput());
+ *
+ * and, in the job's completeWithError():
+ *
+ *    JobTaskErrors.logTaskErrors(jobCompletionContext);
+ */
+
+@UserDefinedClassInfo
+public class JobTaskErrors {
+
+    public static final String OUTPUT_ERROR_COUNT = "errorCount";
+    public static final String OUTPUT_ERRORS = "errors";
+
+    static final int MAX_OUTPUT_LENGTH = 1500;  // characters of error detail saved in the TaskOutput
+
+    private JobLogger logger;
+    private List<String> errors;
+    private int itemCount;
+
+    public JobTaskErrors(JobLogger logger) {
+      this.logger = logger;
+      this.errors = VaultCollections.newList();
+      this.itemCount = 0;
+    }
+
+    /**
+     * Process one job item.  An exception thrown by the processor is logged and recorded against the item
+     * instead of terminating the task.
+     * @param itemId - String.  Identifies the item in the log and the task output, e.g. a document version ID
+     * @param processor - Runnable.  Processes the item
+     * @return boolean - true if the item was processed without an exception
+     */
+    public boolean run(String itemId, Runnable processor) {
+      this.itemCount++;
+      try {
+        processor.run();
+        return true;
+      } catch (RuntimeException e) {
+        addError(itemId, e.getMessage());
+        return false;
+      }
+    }
+
+    /**
+     * Count a job item that is processed without run(), e.g. as part of a batch.  Failures of such items
+     * are recorded with addError().
+     */
+    public void countItem() {
+      this.itemCount++;
+    }
+
+    /**
+     * Record a failure against a job item, e.g. when a VaultAPI call fails without an exception.
+     * @param itemId - String
+     * @param message - String
+     */
+    public void addError(String itemId, String message) {
+      String error = itemId + ": " + message;
+      this.logger.log("Failed to process " + error);
+      this.errors.add(error);
+    }
+
+    public boolean hasErrors() {
+      return this.errors.size() > 0;
+    }
+
+    /**
+     * Set the task's state to SUCCESS if no item failed; otherwise set it to ERRORS_ENCOUNTERED, and save the
+     * number of failed items and the item-level error messages in the task's output.
+     * @param taskOutput - TaskOutput
+     */
+    public void setTaskOutput(TaskOutput taskOutput) {
+
+      if (!hasErrors()) {
+        taskOutput.setState(TaskState.SUCCESS);
+        this.logger.log("Task successful: " + this.itemCount + " item(s) processed");
+        return;
+      }
+
+      StringBuilder detail = new StringBuilder();
+      int included = 0;
+      for (String error : this.errors) {
+        if (detail.length() + error.length() + 1 > MAX_OUTPUT_LENGTH) {
+          break;
+        }
+        if (included > 0) {
+          detail.append("\n");
+        }
+        detail.append(error);
+        included++;
+      }
+      if (included < this.errors.size()) {
+        detail.append("\n... and ").append(this.errors.size() - included).append(" more");
+      }
+
+      taskOutput.setState(TaskState.ERRORS_ENCOUNTERED);
+      taskOutput.setValue(OUTPUT_ERROR_COUNT, String.valueOf(this.errors.size()));
+      taskOutput.setValue(OUTPUT_ERRORS, detail.toString());
+      this.logger.log(
+        "Task unsuccessful: " + this.errors.size() + " of " + this.itemCount + " item(s) failed"
+      );
+    }
+
+    /**
+     * Log the item-level errors of each task that encountered errors.
+     * @param jobCompletionContext - JobCompletionContext
+     */
+    public static void logTaskErrors(JobCompletionContext jobCompletionContext) {
+      JobLogger logger = jobCompletionContext.getJobLogger();
+      for (JobTask task : jobCompletionContext.getTasks()) {
+        TaskOutput taskOutput = task.getTaskOutput();
+        if (TaskState.ERRORS_ENCOUNTERED.equals(taskOutput.getState())) {
+          logger.log(
+            task.getTaskId() + " failed on " + taskOutput.getValue(OUTPUT_ERROR_COUNT, JobValueType.STRING) +
+            " item(s):\n" + taskOutput.getValue(OUTPUT_ERRORS, JobValueType.STRING)
+          );
+        }
+      }
+    }
+}
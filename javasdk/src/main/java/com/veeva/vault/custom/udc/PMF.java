@@ -5,16 +5,14 @@ import com.veeva.vault.sdk.api.data.ReadRecordsResponse;
 import com.veeva.vault.sdk.api.data.Record;
 import com.veeva.vault.sdk.api.data.RecordService;
 import com.veeva.vault.sdk.api.group.Group;
-import com.veeva.vault.sdk.api.query.QueryResponse;
-import com.veeva.vault.sdk.api.query.QueryResult;
-import com.veeva.vault.sdk.api.query.QueryService;
 import com.veeva.vault.sdk.api.role.GetRecordRolesResponse;
 import com.veeva.vault.sdk.api.role.RecordRole;
 import com.veeva.vault.sdk.api.role.RecordRoleService;
 import com.veeva.vault.sdk.api.role.RecordRoleUpdate;
 
-import java.util.Iterator;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This UDC contains static methods to support processing related directly to PMF object records.
@@ -29,10 +27,13 @@ import java.util.List;
     getStatus - Return the PMF record's current lifecycle state.
     getRecord - Return the fully populated Record object for the PMF.
     updateLogisticSite - Update the Logistic Site field on the PMF object record.
+    updateLogisticSites - Update the Logistic Site field on many PMF object records.
     updateGlobalCodesAndCountriesDisplay - Update the Global Codes and Impacted Countries display fields.
     updateOwnerRole - Update the Owner role (owner__v) on a PMF record, replacing the current user with a new user.
     updateRegulatoryRole - Populate the Regulatory role on the PMF object record.
     updatePlantReviewerRole - Populate the Plant Reviewer role on the PMF object record.
+    updateRegulatoryRoles - Reconcile the Regulatory role on many PMF object records, adding to a batch of role updates.
+    updatePlantReviewerRoles - Reconcile the Plant Reviewer role on many PMF object records, adding to a batch of role updates.
     setArtworkPackagingNumbers - Populate the "Packaging Number(s)" fields from the impacted Artworks
     isSafetyVariation - return true if the PMF is a Safety Variation, otherwise return false
  */
@@ -57,7 +58,8 @@ public class PMF {
      * @return String - api name of the object type
     */
     public static String getObjectTypeName(String pmfId) {
-      return Util.getObjectTypeName("pmf__c", pmfId);
+      PmfSnapshot pmf = PmfSnapshot.get(pmfId);
+      return pmf == null ? null : pmf.objectTypeName;
     }
 
     /**
@@ -75,15 +77,8 @@ public class PMF {
      * @return
      */
     public static String getRequestor(String pmfRecordId) {
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
-      String userId = null;
-      QueryResponse queryResponse = queryService.query(
-        "select pmf_requestor__c from pmf__c where id = '"+pmfRecordId+"'"
-      );
-      if (queryResponse.getResultCount() > 0) {
-        userId = queryResponse.streamResults().findFirst().get().getValue("pmf_requestor__c", ValueType.STRING);
-      }
-      return userId;
+      PmfSnapshot pmf = PmfSnapshot.get(pmfRecordId);
+      return pmf == null ? null : pmf.requestorId;
     }
 
     /**
@@ -92,18 +87,8 @@ public class PMF {
      * @return String
      */
     public static String getStatus(String pmfRecordId) {
-
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
-
-      String lifecycleState = queryService.query(
-        "select state__v from pmf__c where id = '"+pmfRecordId+"'"
-      )
-        .streamResults()
-        .iterator()
-        .next()
-        .getValue("state__v", ValueType.STRING);
-
-      return lifecycleState;
+      PmfSnapshot pmf = PmfSnapshot.get(pmfRecordId);
+      return pmf == null ? null : pmf.state;
     }
 
     /**
@@ -124,21 +109,19 @@ public class PMF {
      * @param logisticSiteId - String Logistic Site object record id
      */
     public static void updateLogisticSite(String pmfId, String logisticSiteId) {
+      PmfWriteBuffer.setValue(pmfId, "logistic_site__c", logisticSiteId);
+    }
 
-      RecordService rs = ServiceLocator.locate(RecordService.class);
-
-      Record pmfRecord = rs.newRecordWithId("pmf__c", pmfId);
-      pmfRecord.setValue("logistic_site__c", logisticSiteId);
-
-      rs.batchSaveRecords(VaultCollections.asList(pmfRecord))
-        .onErrors(errors -> {
-          errors.stream().findFirst().ifPresent(error -> {
-            String errMsg = error.getError().getMessage();
-            throw new RollbackException(ErrorType.OPERATION_FAILED,
-              "Failed to update the Logistic Site on the PMF due to: " + errMsg + "\n" + "PMF ID: " + pmfId);
-          });
-        })
-        .execute();
+    /**
+     * Update the Logistic Site field on many PMF's, with a single batch save (per RECORD_BATCH_SIZE PMF's).
+     * @param logisticSiteIds - Map<String, String>. Key: PMF Object record id; Value: Logistic Site object record id
+     */
+    public static void updateLogisticSites(Map<String, String> logisticSiteIds) {
+      PmfWriteBuffer.begin();
+      for (Map.Entry<String, String> entry : logisticSiteIds.entrySet()) {
+        PmfWriteBuffer.setValue(entry.getKey(), "logistic_site__c", entry.getValue());
+      }
+      PmfWriteBuffer.end();
     }
 
     /**
@@ -147,70 +130,27 @@ public class PMF {
      * @param pmfRecordId
      */
     public static void updateGlobalCodesAndCountriesDisplay(String pmfRecordId) {
-
-      RecordService recordService = ServiceLocator.locate(RecordService.class);
-
-      String globalCodes = getGlobalCodesDisplay(pmfRecordId);
-      String impactedCountries = getImpactedCountriesDisplay(pmfRecordId);
-
-      Record pmfRecord = recordService.newRecordWithId("pmf__c", pmfRecordId);
-      pmfRecord.setValue("global_codes__c", globalCodes);
-      pmfRecord.setValue("impacted_countries__c", impactedCountries);
-
-      recordService.batchSaveRecords(VaultCollections.asList(pmfRecord))
-        .onErrors(errors -> {
-          errors.stream().findFirst().ifPresent(error -> {
-            String errMsg = error.getError().getMessage();
-            throw new RollbackException(ErrorType.OPERATION_FAILED,
-              "Failed to update the Global Codes field on the PMF due to: " + errMsg + "\n" + "PMF ID: " + pmfRecordId);
-          });
-        })
-        .execute();
-
+      updateGlobalCodesAndCountriesDisplay(VaultCollections.asList(pmfRecordId));
     }
 
-  /*
-   * Get a comma-delimited list of Impacted Global Codes
-   */
-  private static String getGlobalCodesDisplay(String pmfRecordId) {
-
-    final int MAX_FIELD_LENGTH = 5000;
-    final String DELIMITER = ", ";
-
-    QueryService queryService = ServiceLocator.locate(QueryService.class);
-
-    QueryResponse queryResponse = queryService.query(
-      "select global_code_sku__cr.name__v" +
-        "  from pmf_global_code__c where pmf__c = '"+pmfRecordId+"'"
-    );
-
-    if (queryResponse.getResultCount() > 0) {
-      return Util.stringifyFieldValues(queryResponse, "global_code_sku__cr.name__v", MAX_FIELD_LENGTH, DELIMITER);
-    } else {
-      return null;
-    }
-  }
-
-  /*
-   * Get a comma-delimited list of Impacted Country names.
-   */
-  private static String getImpactedCountriesDisplay(String pmfRecordId) {
-
-    final int MAX_FIELD_LENGTH = 2000;
-    final String DELIMITER = ", ";
+    /**
+     * Update the Global Codes and Impacted Countries display fields on many PMF's, rebuilding them from all
+     * of the PMF's Global Codes and Impacted Countries (see RollupString).
+     *
+     * @param pmfRecordIds - Collection<String>
+     */
+    public static void updateGlobalCodesAndCountriesDisplay(Collection<String> pmfRecordIds) {
 
-    QueryService queryService = ServiceLocator.locate(QueryService.class);
+      RollupString globalCodes = RollupString.globalCodes();
+      RollupString impactedCountries = RollupString.impactedCountries();
 
-    QueryResponse queryResponse = queryService.query(
-      "select country__cr.name__v from pmf_impacted_country__c where pmf__c = '"+pmfRecordId+"'"
-    );
+      for (String pmfRecordId : pmfRecordIds) {
+        globalCodes.rebuild(pmfRecordId);
+        impactedCountries.rebuild(pmfRecordId);
+      }
 
-    if (queryResponse.getResultCount() > 0) {
-      return Util.stringifyFieldValues(queryResponse, "country__cr.name__v", MAX_FIELD_LENGTH, DELIMITER);
-    } else {
-      return null;
+      RollupString.update(globalCodes, impactedCountries);
     }
-  }
 
   /**
      * Update the Owner role (owner__v) on a PMF record, replacing the current user(s) with a correct user.
@@ -220,6 +160,18 @@ public class PMF {
      * @param pmfRecord - Record, fully populated from a PMF object record.
      */
     public static void updateOwnerRole(Record pmfRecord) {
+      RecordRoleUpdateBatch roleUpdates = new RecordRoleUpdateBatch();
+      updateOwnerRole(pmfRecord, roleUpdates);
+      roleUpdates.execute();
+    }
+
+    /**
+     * Determine the update to the Owner role (owner__v) on a PMF record, as for updateOwnerRole(Record),
+     * and add it to a batch of role updates rather than writing it immediately.
+     * @param pmfRecord - Record, fully populated from a PMF object record.
+     * @param roleUpdates - RecordRoleUpdateBatch.  The caller is responsible for calling execute().
+     */
+    public static void updateOwnerRole(Record pmfRecord, RecordRoleUpdateBatch roleUpdates) {
 
       RecordRoleService recordRoleService = ServiceLocator.locate(RecordRoleService.class);
 
@@ -253,9 +205,7 @@ public class PMF {
       roleUpdate.removeGroups(currentGroups);
       roleUpdate.addUsers(VaultCollections.asList(pmfRequestor));
 
-      recordRoleService.batchUpdateRecordRoles(VaultCollections.asList(roleUpdate))
-        .rollbackOnErrors()
-        .execute();
+      roleUpdates.add(roleUpdate);
 
     }
 
@@ -274,13 +224,21 @@ public class PMF {
 
       List<String> userIds = pmfUsers.getRegulatoryUsers(countryId, businessUnit, pmfBrand, pmfType);
 
-      clearOutRole(pmfRecord, "regulatory__c");
+      updateRegulatoryRole(pmfRecord, userIds);
 
-      if (userIds.size() > 0) {
-        populateRole(pmfRecord, "regulatory__c", userIds);
-      } else {
-        //TODO: put a notification that no Regulatory Users were found?????
-      }
+    } // end updateRegulatoryRole()
+
+    /**
+     * Populate the Regulatory role on the PMF record with the given users, which have already been
+     * resolved, e.g. by PmfUsers.getRegulatoryUsers(Collection<Record>).
+     * @param pmfRecord - Record. Must include the record ID.
+     * @param userIds - List<String>. ID's of the users who should occupy the role
+     */
+    public static void updateRegulatoryRole(Record pmfRecord, List<String> userIds) {
+
+      RecordRoleUpdateBatch roleUpdates = new RecordRoleUpdateBatch();
+      reconcileRole(pmfRecord, "regulatory__c", userIds, roleUpdates);
+      roleUpdates.execute();
 
     } // end updateRegulatoryRole()
 
@@ -299,13 +257,9 @@ public class PMF {
 //
 //    List<String> userIds = pmfUsers.getNonRegulatoryReviewers(countryId, businessUnit, pmfBrand);
 //
-//    clearOutRole(pmfRecord, "pmf_reviewer__c");
-//
-//    if (userIds.size() > 0) {
-//      populateRole(pmfRecord, "pmf_reviewer__c", userIds);
-//    } else {
-//      //TODO: put a notification that no Regulatory Users were found?????
-//    }
+//    RecordRoleUpdateBatch roleUpdates = new RecordRoleUpdateBatch();
+//    reconcileRole(pmfRecord, "pmf_reviewer__c", userIds, roleUpdates);
+//    roleUpdates.execute();
 //
 //  } // end updateRegulatoryRole()
 
@@ -321,14 +275,50 @@ public class PMF {
 
       List<String> userIds = pmfUsers.getPlantReviewers(logisticSite);
 
-      clearOutRole(pmfRecord, "pmf_plant_reviewer__c");
+      updatePlantReviewerRole(pmfRecord, userIds);
 
-      if (userIds.size() > 0) {
-        populateRole(pmfRecord, "pmf_plant_reviewer__c", userIds);
-      } else {
-        //TODO: put a notification that no Plant Users were found?????
-      }
+    }
+
+    /**
+     * Populate the Plant Reviewer role on the PMF record with the given users, which have already been
+     * resolved, e.g. by PmfUsers.getPlantReviewers(Collection<Record>).
+     * @param pmfRecord - Record. Must include the record ID.
+     * @param userIds - List<String>. ID's of the users who should occupy the role
+     */
+    public static void updatePlantReviewerRole(Record pmfRecord, List<String> userIds) {
 
+      RecordRoleUpdateBatch roleUpdates = new RecordRoleUpdateBatch();
+      reconcileRole(pmfRecord, "pmf_plant_reviewer__c", userIds, roleUpdates);
+      roleUpdates.execute();
+
+    }
+
+    /**
+     * Reconcile the Regulatory role on many PMF records with users that have already been resolved,
+     * e.g. by PmfUsers.getRegulatoryUsers(Collection<Record>).  The current role occupants are read
+     * in bulk, and the updates are added to a batch of role updates.
+     * @param pmfRecords - List<Record>. Must include the record ID's.
+     * @param usersByPmf - Map<String, List<String>>. key: PMF record ID; value: ID's of the users who should occupy the role
+     * @param roleUpdates - RecordRoleUpdateBatch.  The caller is responsible for calling execute().
+     */
+    public static void updateRegulatoryRoles(
+      List<Record> pmfRecords, Map<String, List<String>> usersByPmf, RecordRoleUpdateBatch roleUpdates
+    ) {
+      reconcileRoles(pmfRecords, "regulatory__c", usersByPmf, roleUpdates);
+    }
+
+    /**
+     * Reconcile the Plant Reviewer role on many PMF records with users that have already been resolved,
+     * e.g. by PmfUsers.getPlantReviewers(Collection<Record>).  The current role occupants are read
+     * in bulk, and the updates are added to a batch of role updates.
+     * @param pmfRecords - List<Record>. Must include the record ID's.
+     * @param usersByPmf - Map<String, List<String>>. key: PMF record ID; value: ID's of the users who should occupy the role
+     * @param roleUpdates - RecordRoleUpdateBatch.  The caller is responsible for calling execute().
+     */
+    public static void updatePlantReviewerRoles(
+      List<Record> pmfRecords, Map<String, List<String>> usersByPmf, RecordRoleUpdateBatch roleUpdates
+    ) {
+      reconcileRoles(pmfRecords, "pmf_plant_reviewer__c", usersByPmf, roleUpdates);
     }
 
     /**
@@ -342,57 +332,13 @@ public class PMF {
      */
     public static void setArtworkPackagingNumbers(String pmfRecordId) {
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
-      RecordService recordService = ServiceLocator.locate(RecordService.class);
-
-      QueryResponse queryResponse = queryService.query(
-        "select document_number__c, packaging_number__c" +
-        "  from pmf_artwork_document__c" +
-        " where pmf__c = '"+pmfRecordId+"'"
-      );
-
-      Iterator<QueryResult> iter = queryResponse.streamResults().iterator();
-
-      List<String> packagingNumberList = VaultCollections.newList();
-      List<String> documentNumberList = VaultCollections.newList();
+      RollupString packagingNumbers = RollupString.packagingNumbers();
+      RollupString documentNumbers = RollupString.artworkDocumentNumbers();
 
-      while (iter.hasNext()) {
-        QueryResult queryResult = iter.next();
-        String packagingNumber = queryResult.getValue("packaging_number__c", ValueType.STRING);
-        String documentNumber = queryResult.getValue("document_number__c", ValueType.STRING);
-        if (packagingNumber != null) {
-          packagingNumberList.add(packagingNumber);
-        }
-        documentNumberList.add(documentNumber);
-      }
-
-      String packagingNumbers = Util.stringifyList(packagingNumberList);
-      String documentNumbers = Util.stringifyList(documentNumberList);
-
-      // There should never be more than a handful of Artwork Documents attached
-      // to a PMF, so this logic is therefore unnecessary.  But including it
-      // just in case.
-      if (packagingNumbers.length() > 1500) {
-        packagingNumbers = packagingNumbers.substring(0, 1500);
-      }
-      if (documentNumbers.length() > 1500) {
-        documentNumbers = documentNumbers.substring(0, 1500);
-      }
-
-      Record pmfRecord = recordService.newRecordWithId("pmf__c", pmfRecordId);
-
-      pmfRecord.setValue("packaging_numbers__c", packagingNumbers);
-      pmfRecord.setValue("artwork_document_numbers__c", documentNumbers);
-
-      recordService.batchSaveRecords(VaultCollections.asList(pmfRecord))
-        .onErrors(batchOperationErrors -> {
-          batchOperationErrors.stream().findFirst().ifPresent(error -> {
-            String errMsg = error.getError().getMessage();
-            throw new RollbackException(ErrorType.OPERATION_FAILED, errMsg);
-          });
-        })
-        .execute();
+      packagingNumbers.rebuild(pmfRecordId);
+      documentNumbers.rebuild(pmfRecordId);
 
+      RollupString.update(packagingNumbers, documentNumbers);
     }
 
   /**
@@ -401,19 +347,8 @@ public class PMF {
    * @return boolean
    */
     public static boolean isSafetyVariation(String pmfId) {
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
-      Boolean answer = queryService.query(
-        "select safety_variation__c from pmf__c where id = '"+pmfId+"'"
-      )
-        .streamResults()
-        .findFirst()
-        .get()
-        .getValue("safety_variation__c", ValueType.BOOLEAN);
-
-      if (answer == null) {
-        answer = false;
-      }
-      return answer;
+      PmfSnapshot pmf = PmfSnapshot.get(pmfId);
+      return pmf != null && pmf.safetyVariation;
     }
 
 // CURRENTLY NOT USED...
@@ -428,42 +363,55 @@ public class PMF {
 //      return qr.streamResults().iterator().next().getValue("created_by__v", ValueType.STRING);
 //    }
 
-    // Add the users in the provided list to the specified Role. Roles are:
+    // Make the users in the specified Role match the given list of users.  Roles are:
     //   - regulatory__c
     //   - pmf_plant_reviewer__c
-    private static void populateRole(Record pmfRecord, String roleName, List<String> userIds) {
-
-      RecordRoleService recordRoleService = ServiceLocator.locate(RecordRoleService.class);
-      RecordRoleUpdate regulatoryRole = recordRoleService.newRecordRoleUpdate(roleName, pmfRecord);
-      regulatoryRole.addUsers(userIds);
-      recordRoleService.batchUpdateRecordRoles(VaultCollections.asList(regulatoryRole))
-        .rollbackOnErrors()
-        .execute();
+    private static void reconcileRole(
+      Record pmfRecord, String roleName, List<String> userIds, RecordRoleUpdateBatch roleUpdates
+    ) {
+      Map<String, List<String>> usersByPmf = VaultCollections.newMap();
+      usersByPmf.put(pmfRecord.getValue("id", ValueType.STRING), userIds);
+      reconcileRoles(VaultCollections.asList(pmfRecord), roleName, usersByPmf, roleUpdates);
     }
 
-    // Remove all users currently in the specified Role. Roles are:
-    //   - regulatory__c
-    //   - pmf_plant_reviewer__c
-    // Include any groups, just in case someone added a group manually.
-    private static void clearOutRole(Record pmfRecord, String roleName) {
+    // Make the users in the specified Role on each PMF record match the PMF's list of users.
+    // The current occupants are read in chunks of RecordRoleUpdateBatch.BATCH_SIZE records, and for each
+    // record only the users who are no longer eligible are removed and only the newly eligible users are
+    // added, in a single update.  Nothing is updated if the Role already has the right users.  Any groups
+    // are removed, just in case someone added a group manually.
+    private static void reconcileRoles(
+      List<Record> pmfRecords, String roleName, Map<String, List<String>> usersByPmf, RecordRoleUpdateBatch roleUpdates
+    ) {
 
       RecordRoleService recordRoleService = ServiceLocator.locate(RecordRoleService.class);
 
-      GetRecordRolesResponse recordRolesResponse = recordRoleService.getRecordRoles(
-        VaultCollections.asList(pmfRecord), roleName
-      );
-
-      RecordRole recordRole = recordRolesResponse.getRecordRole(pmfRecord);
-      List<String> userIds = recordRole.getUsers();
-      List<Group> groups = recordRole.getGroups();  //include groups just in case
-
-      if (userIds.size() > 0 || groups.size() > 0) {
-        RecordRoleUpdate recordRoleUpdate = recordRoleService.newRecordRoleUpdate(roleName, pmfRecord);
-        recordRoleUpdate.removeUsers(userIds);
-        recordRoleUpdate.removeGroups(groups);
-        recordRoleService.batchUpdateRecordRoles(VaultCollections.asList(recordRoleUpdate))
-          .rollbackOnErrors()
-          .execute();
+      for (int start = 0; start < pmfRecords.size(); start += RecordRoleUpdateBatch.BATCH_SIZE) {
+
+        List<Record> chunk = pmfRecords.subList(start, Math.min(start + RecordRoleUpdateBatch.BATCH_SIZE, pmfRecords.size()));
+
+        GetRecordRolesResponse recordRolesResponse = recordRoleService.getRecordRoles(chunk, roleName);
+
+        for (Record pmfRecord : chunk) {
+
+          List<String> userIds = usersByPmf.get(pmfRecord.getValue("id", ValueType.STRING));
+          if (userIds == null) {
+            userIds = VaultCollections.newList();
+          }
+
+          RecordRole recordRole = recordRolesResponse.getRecordRole(pmfRecord);
+          List<String> currentUserIds = recordRole.getUsers();
+          List<Group> groups = recordRole.getGroups();  //include groups just in case
+
+          SetDelta userDelta = Util.delta(currentUserIds, userIds);
+
+          if (!userDelta.isEmpty() || groups.size() > 0) {
+            RecordRoleUpdate recordRoleUpdate = recordRoleService.newRecordRoleUpdate(roleName, pmfRecord);
+            recordRoleUpdate.removeUsers(userDelta.toRemove);
+            recordRoleUpdate.removeGroups(groups);
+            recordRoleUpdate.addUsers(userDelta.toAdd);
+            roleUpdates.add(recordRoleUpdate);
+          }
+        }
       }
     }
 
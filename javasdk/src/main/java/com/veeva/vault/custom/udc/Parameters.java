@@ -7,7 +7,6 @@ import com.veeva.vault.sdk.api.json.JsonService;
 import com.veeva.vault.sdk.api.json.JsonValueType;
 import com.veeva.vault.sdk.api.query.QueryResponse;
 import com.veeva.vault.sdk.api.query.QueryResult;
-import com.veeva.vault.sdk.api.query.QueryService;
 
 /**
  * This class is an interface for the "VPROC Parameter Set" object record.
@@ -33,8 +32,7 @@ public class Parameters {
 
     private static JsonObject getPmfParameters() {
         JsonService jsonService = ServiceLocator.locate(JsonService.class);
-        QueryService queryService = ServiceLocator.locate(QueryService.class);
-        QueryResponse queryResponse = queryService.query(
+        QueryResponse queryResponse = QueryUtil.queryLegacy(
           "select parameters__c from vproc_parameter_set__c where name__v = 'pmf'"
         );
         QueryResult queryResult = queryResponse.streamResults().iterator().next();
@@ -3,10 +3,9 @@ package com.veeva.vault.custom.udc;
 import com.veeva.vault.sdk.api.core.*;
 import com.veeva.vault.sdk.api.data.RecordService;
 import com.veeva.vault.sdk.api.data.*;
-import com.veeva.vault.sdk.api.query.QueryResponse;
-import com.veeva.vault.sdk.api.query.QueryResult;
-import com.veeva.vault.sdk.api.query.QueryService;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -15,12 +14,19 @@ import java.util.Set;
 
 /**
  * This class is used specifically to store the PMF Global Code record ID's and the Logistic Site record ID
- * for a PMF, to allow updating the Logistic Site field and to update the PMF's list of PMF Impacted Country
- * object records.
+ * for one or more PMF's, to allow updating the Logistic Site field and to update the PMF's list of PMF
+ * Impacted Country object records.
  *
  * An instance of this class is created in triggers.pmf_global_code.GatherGlobalCodes.java (BEFORE INSERT/UPDATE)
  *
  * That instance is then retrieved and used by triggers.pmf_global_code.UpdatePMF.java (AFTER INSERT/UPDATE)
+ *
+ * A bulk load may touch the Global Codes of many PMF's, so the Global Codes are held per PMF, and each
+ * update is made for all of the PMF's at once, with a fixed number of queries and batch saves.
+ *
+ * When the Global Codes added to and removed from a PMF are known (see addChanges()), the PMF's Impacted
+ * Countries are maintained incrementally, from the countries of the changed Global Codes only.  Otherwise,
+ * they are recomputed from the countries of all of the PMF's Global Codes.
  */
 
 @UserDefinedClassInfo(name = "pmf_globalcodes__c")
@@ -28,12 +34,30 @@ public class PmfGlobalCodes implements RequestContextValue {
 
     public static final String ContextName = "pmfGlobalCodes";
 
-    private String pmfRecordId;
-    private List<String> globalCodeRecordIds; // derived from the current PMF Global Code object records
-    private String logisticSiteRecordId;
+    // key: PMF record id; value: the "Global Code (SKU)" record ID's derived from the PMF Global Code records
+    private Map<String, List<String>> globalCodeRecordIds;
+
+    // key: PMF record id; value: Logistic Site record id.  Only PMF's whose Logistic Site is to be updated.
+    private Map<String, String> logisticSiteRecordIds;
+
+    // key: PMF record id; value: "Global Code (SKU)" record ID's added to/removed from the PMF.
+    // Only PMF's whose Impacted Countries are to be maintained incrementally.
+    private Map<String, List<String>> addedGlobalCodeRecordIds;
+    private Map<String, List<String>> removedGlobalCodeRecordIds;
+
+    // key: PMF record id; value: Country record ID's added to/removed from the PMF's Impacted Countries
+    // by updateImpactedCountries(), used to maintain the Impacted Countries display field incrementally
+    private Map<String, List<String>> addedCountryRecordIds;
+    private Map<String, List<String>> removedCountryRecordIds;
 
     public PmfGlobalCodes() {
       //parameter-less constructor required by the system
+      this.globalCodeRecordIds = VaultCollections.newMap();
+      this.logisticSiteRecordIds = VaultCollections.newMap();
+      this.addedGlobalCodeRecordIds = VaultCollections.newMap();
+      this.removedGlobalCodeRecordIds = VaultCollections.newMap();
+      this.addedCountryRecordIds = VaultCollections.newMap();
+      this.removedCountryRecordIds = VaultCollections.newMap();
     }
 
   /**
@@ -43,9 +67,8 @@ public class PmfGlobalCodes implements RequestContextValue {
    * @param logisticSiteRecordId - String.
    */
     public PmfGlobalCodes(String pmfRecordId, List<String> globalCodeRecordIds, String logisticSiteRecordId) {
-      this.pmfRecordId = pmfRecordId;
-      this.globalCodeRecordIds = globalCodeRecordIds;
-      this.logisticSiteRecordId = logisticSiteRecordId;
+      this();
+      add(pmfRecordId, globalCodeRecordIds, logisticSiteRecordId);
     }
 
   /**
@@ -54,25 +77,108 @@ public class PmfGlobalCodes implements RequestContextValue {
    *                            the list of "PMF Global Code" object records associated with the PMF.
    */
     public PmfGlobalCodes(String pmfRecordId, List<String> globalCodeRecordIds) {
-      this.pmfRecordId = pmfRecordId;
-      this.globalCodeRecordIds = globalCodeRecordIds;
-      this.logisticSiteRecordId = null;
+      this();
+      add(pmfRecordId, globalCodeRecordIds);
+    }
+
+  /**
+   * Add a PMF, with its Global Codes and the Logistic Site to set on the PMF.
+   * @param pmfRecordId - String.  The record id for the associated PMF record.
+   * @param globalCodeRecordIds - List<String>.  The list of "Global Code (SKU)" object record ID's, from
+   *                            the list of "PMF Global Code" object records associated with the PMF.
+   * @param logisticSiteRecordId - String.
+   */
+    public void add(String pmfRecordId, List<String> globalCodeRecordIds, String logisticSiteRecordId) {
+      this.globalCodeRecordIds.put(pmfRecordId, globalCodeRecordIds);
+      this.logisticSiteRecordIds.put(pmfRecordId, logisticSiteRecordId);
+    }
+
+  /**
+   * Add a PMF, with its Global Codes.  The PMF's Logistic Site will not be updated.
+   * @param pmfRecordId - String.  The record id for the associated PMF record.
+   * @param globalCodeRecordIds - List<String>.  The list of "Global Code (SKU)" object record ID's, from
+   *                            the list of "PMF Global Code" object records associated with the PMF.
+   */
+    public void add(String pmfRecordId, List<String> globalCodeRecordIds) {
+      this.globalCodeRecordIds.put(pmfRecordId, globalCodeRecordIds);
+    }
+
+  /**
+   * Record the Global Codes added to and removed from a PMF, so that the PMF's Impacted Countries are
+   * maintained incrementally.  The PMF must already have been added, with all of its remaining Global Codes.
+   * @param pmfRecordId - String.  The record id for the associated PMF record.
+   * @param addedGlobalCodeRecordIds - List<String>.  "Global Code (SKU)" record ID's added to the PMF.
+   * @param removedGlobalCodeRecordIds - List<String>.  "Global Code (SKU)" record ID's removed from the PMF.
+   */
+    public void addChanges(String pmfRecordId, List<String> addedGlobalCodeRecordIds, List<String> removedGlobalCodeRecordIds) {
+      this.addedGlobalCodeRecordIds.put(pmfRecordId, addedGlobalCodeRecordIds);
+      this.removedGlobalCodeRecordIds.put(pmfRecordId, removedGlobalCodeRecordIds);
+    }
+
+    /**
+     * Return the record ID's of the PMF's.
+     * @return Set<String>
+     */
+    public Set<String> getPmfRecordIds() {
+      return this.globalCodeRecordIds.keySet();
+    }
+
+    /**
+     * Return the list of "Global Code (SKU)" record ID's of a PMF, or null if the PMF has not been added.
+     * @param pmfRecordId - String
+     * @return List<String>
+     */
+    public List<String> getGlobalCodeRecordIds(String pmfRecordId) {
+      return this.globalCodeRecordIds.get(pmfRecordId);
     }
 
     /**
      * Update the PMF's Logistic Site field.
      */
     public void updatePmfLogisticSite() {
-      PMF.updateLogisticSite(pmfRecordId, logisticSiteRecordId);
+      if (this.logisticSiteRecordIds.size() > 0) {
+        PMF.updateLogisticSites(this.logisticSiteRecordIds);
+      }
     }
 
     /**
-     * Update the PMF's Global Codes and Impacted Countries fields.
+     * Update the PMF's Global Codes and Impacted Countries fields.  The fields are updated incrementally from
+     * the Global Codes added/removed (see addChanges()) and the Impacted Countries added/removed by
+     * updateImpactedCountries(), or else rebuilt (see RollupString).
      *
      *   NOTE: this method MUST be called AFTER updatedImpactedCountries() !!
      */
     public void updatePmfGlobalCodesAndCountriesDisplay() {
-      PMF.updateGlobalCodesAndCountriesDisplay(this.pmfRecordId);
+
+      RollupString globalCodes = RollupString.globalCodes();
+      RollupString impactedCountries = RollupString.impactedCountries();
+
+      for (String pmfRecordId : getPmfRecordIds()) {
+
+        if (this.addedGlobalCodeRecordIds.containsKey(pmfRecordId)) {
+          for (String globalCodeRecordId : this.addedGlobalCodeRecordIds.get(pmfRecordId)) {
+            globalCodes.add(pmfRecordId, globalCodeRecordId);
+          }
+          for (String globalCodeRecordId : this.removedGlobalCodeRecordIds.get(pmfRecordId)) {
+            globalCodes.remove(pmfRecordId, globalCodeRecordId);
+          }
+        } else {
+          globalCodes.rebuild(pmfRecordId);
+        }
+
+        if (this.addedCountryRecordIds.containsKey(pmfRecordId)) {
+          for (String countryRecordId : this.addedCountryRecordIds.get(pmfRecordId)) {
+            impactedCountries.add(pmfRecordId, countryRecordId);
+          }
+          for (String countryRecordId : this.removedCountryRecordIds.get(pmfRecordId)) {
+            impactedCountries.remove(pmfRecordId, countryRecordId);
+          }
+        } else {
+          impactedCountries.rebuild(pmfRecordId);
+        }
+      }
+
+      RollupString.update(globalCodes, impactedCountries);
     }
 
     /**
@@ -80,116 +186,228 @@ public class PmfGlobalCodes implements RequestContextValue {
      */
     public void updateImpactedCountries() {
 
-      RecordService recordService = ServiceLocator.locate(RecordService.class);
+      List<String> fullPmfRecordIds = VaultCollections.newList();
+      List<String> incrementalPmfRecordIds = VaultCollections.newList();
+      for (String pmfRecordId : getPmfRecordIds()) {
+        if (this.addedGlobalCodeRecordIds.containsKey(pmfRecordId)) {
+          incrementalPmfRecordIds.add(pmfRecordId);
+        } else {
+          fullPmfRecordIds.add(pmfRecordId);
+        }
+      }
 
-      Set<String> allPossibleCountries = getAllPossibleCountries();
+      List<Record> recordsToDelete = VaultCollections.newList();
+      List<Record> recordsToAdd = VaultCollections.newList();
 
-      // Key: Country record id; Value: PMF Impacted Country record id
-      Map<String, String> currentPmfCountries = getCurrentPMFCountries();
+      if (fullPmfRecordIds.size() > 0) {
+        getFullChanges(fullPmfRecordIds, recordsToDelete, recordsToAdd);
+      }
+      if (incrementalPmfRecordIds.size() > 0) {
+        getIncrementalChanges(incrementalPmfRecordIds, recordsToDelete, recordsToAdd);
+      }
 
-      List<Record> records;
-      List<String> countryIds;
+      Util.deleteRecords(recordsToDelete, "Failed to delete PMF Impacted Country record due to: ");
+      Util.saveRecords(recordsToAdd, "Failed to save PMF Impacted Country record due to: ");
+    }
 
-      /////////////////////////////////////////////
-      // Remove countries no longer applicable...
-      /////////////////////////////////////////////
-      countryIds = Util.difference(currentPmfCountries.keySet(), allPossibleCountries);
-      if (countryIds.size() > 0) {
-        records = VaultCollections.newList();
-        for (String countryId : countryIds) {
-          String pmfImpactedCountryRecordId = currentPmfCountries.get(countryId);
-          records.add(recordService.newRecordWithId("pmf_impacted_country__c", pmfImpactedCountryRecordId));
+    // Determine the PMF Impacted Country records to delete and add by comparing each PMF's current Impacted
+    // Countries with the countries of all of its Global Codes.
+    private void getFullChanges(List<String> pmfRecordIds, List<Record> recordsToDelete, List<Record> recordsToAdd) {
+
+      Set<String> allGlobalCodeRecordIds = VaultCollections.newSet();
+      for (String pmfRecordId : pmfRecordIds) {
+        allGlobalCodeRecordIds.addAll(this.globalCodeRecordIds.get(pmfRecordId));
+      }
+
+      // Key: Global Code (SKU) record id; Value: the Country record id's it is sold in
+      Map<String, Set<String>> globalCodeCountries = getGlobalCodeCountries(allGlobalCodeRecordIds, null);
+
+      // Key: PMF record id; Value: map of Country record id (Key) to PMF Impacted Country record id (Value)
+      Map<String, Map<String, String>> currentPmfCountries = getCurrentPMFCountries(pmfRecordIds);
+
+      for (String pmfRecordId : pmfRecordIds) {
+
+        Set<String> allPossibleCountries = getCountries(this.globalCodeRecordIds.get(pmfRecordId), globalCodeCountries);
+
+        Map<String, String> currentCountries = currentPmfCountries.get(pmfRecordId);
+        SetDelta countryDelta = Util.delta(currentCountries.keySet(), allPossibleCountries);
+
+        addChangedRecords(pmfRecordId, countryDelta.toRemove, countryDelta.toAdd, currentCountries, recordsToDelete, recordsToAdd);
+      }
+    }
+
+    // Determine the PMF Impacted Country records to delete and add from the countries of the Global Codes added
+    // to and removed from each PMF.  A country of an added Global Code is added if the PMF does not already have
+    // it.  A country of a removed Global Code is deleted only if none of the PMF's remaining Global Codes is
+    // sold in it.
+    private void getIncrementalChanges(List<String> pmfRecordIds, List<Record> recordsToDelete, List<Record> recordsToAdd) {
+
+      Set<String> changedGlobalCodeRecordIds = VaultCollections.newSet();
+      for (String pmfRecordId : pmfRecordIds) {
+        changedGlobalCodeRecordIds.addAll(this.addedGlobalCodeRecordIds.get(pmfRecordId));
+        changedGlobalCodeRecordIds.addAll(this.removedGlobalCodeRecordIds.get(pmfRecordId));
+      }
+
+      // Key: Global Code (SKU) record id; Value: the Country record id's it is sold in
+      Map<String, Set<String>> changedGlobalCodeCountries = getGlobalCodeCountries(changedGlobalCodeRecordIds, null);
+
+      // Key: PMF record id; Value: the countries to add, and the countries that may have to be removed
+      Map<String, Set<String>> addedCountries = VaultCollections.newMap();
+      Map<String, Set<String>> removedCountries = VaultCollections.newMap();
+
+      Set<String> allChangedCountries = VaultCollections.newSet();
+      Set<String> allRemovedCountries = VaultCollections.newSet();
+      Set<String> allRemainingGlobalCodeRecordIds = VaultCollections.newSet();
+
+      for (String pmfRecordId : pmfRecordIds) {
+        Set<String> added = getCountries(this.addedGlobalCodeRecordIds.get(pmfRecordId), changedGlobalCodeCountries);
+        Set<String> removed = getCountries(this.removedGlobalCodeRecordIds.get(pmfRecordId), changedGlobalCodeCountries);
+        removed.removeAll(added);  // still covered by an added Global Code
+        addedCountries.put(pmfRecordId, added);
+        removedCountries.put(pmfRecordId, removed);
+        allChangedCountries.addAll(added);
+        allChangedCountries.addAll(removed);
+        if (removed.size() > 0) {
+          allRemovedCountries.addAll(removed);
+          allRemainingGlobalCodeRecordIds.addAll(this.globalCodeRecordIds.get(pmfRecordId));
         }
-        recordService.batchDeleteRecords(records)
-          .onErrors(batchOperationErrors -> {
-            batchOperationErrors.stream().findFirst().ifPresent(error -> {
-              String errMsg = error.getError().getMessage();
-              throw new RollbackException(ErrorType.OPERATION_FAILED,
-                "Failed to delete PMF Impacted Country record due to: " + errMsg);
-            });
-          })
-          .execute();
-      }
-
-      //////////////////////////////////////////////////////////////
-      // Add new countries to the list of PMF Impacted Countries...
-      //////////////////////////////////////////////////////////////
-      countryIds = Util.difference(allPossibleCountries, currentPmfCountries.keySet());
-      if (countryIds.size() > 0) {
-        records = VaultCollections.newList();
-        for (String countryId : countryIds) {
-          Record record = recordService.newRecord("pmf_impacted_country__c");
-          record.setValue("pmf__c", this.pmfRecordId);
-          record.setValue("country__c", countryId);
-          records.add(record);
+      }
+
+      if (allChangedCountries.size() == 0) {
+        // the changed Global Codes are not sold in any country
+        for (String pmfRecordId : pmfRecordIds) {
+          addChangedRecords(pmfRecordId, VaultCollections.newList(), VaultCollections.newList(), null, recordsToDelete, recordsToAdd);
         }
-        recordService.batchSaveRecords(records)
-          .onErrors(batchOperationErrors -> {
-            batchOperationErrors.stream().findFirst().ifPresent(error -> {
-              String errMsg = error.getError().getMessage();
-              throw new RollbackException(ErrorType.OPERATION_FAILED,
-                "Failed to save PMF Impacted Country record due to: " + errMsg);
-            });
-          })
-          .execute();
+        return;
       }
-    }
 
-    // Return the set of all possible countries based on the list of Global Code (SKU) Record Ids
-    private Set<String> getAllPossibleCountries() {
+      // Key: PMF record id; Value: map of Country record id (Key) to PMF Impacted Country record id (Value),
+      // for the changed countries only
+      Map<String, Map<String, String>> currentPmfCountries = getCurrentPMFCountries(pmfRecordIds, allChangedCountries);
 
-      Set<String> result = VaultCollections.newSet();
+      // Key: remaining Global Code (SKU) record id; Value: the removed countries it is sold in
+      Map<String, Set<String>> remainingGlobalCodeCountries = VaultCollections.newMap();
+      if (allRemovedCountries.size() > 0) {
+        remainingGlobalCodeCountries = getGlobalCodeCountries(allRemainingGlobalCodeRecordIds, allRemovedCountries);
+      }
 
-      if (globalCodeRecordIds.size() > 0) {
+      for (String pmfRecordId : pmfRecordIds) {
 
-        StringBuilder queryBuilder = new StringBuilder(
-          "select country__c from global_code_sku_country__c where global_code_sku__c contains ("
-        );
+        Map<String, String> currentCountries = currentPmfCountries.get(pmfRecordId);
+
+        List<String> countriesToAdd = Util.difference(addedCountries.get(pmfRecordId), currentCountries.keySet());
 
-        Iterator<String> iter = this.globalCodeRecordIds.iterator();
-        while (iter.hasNext()) {
-          queryBuilder.append("'").append(iter.next()).append("'");
-          if (iter.hasNext()) {
-            queryBuilder.append(",");
+        Set<String> stillCovered = getCountries(this.globalCodeRecordIds.get(pmfRecordId), remainingGlobalCodeCountries);
+        List<String> countriesToRemove = VaultCollections.newList();
+        for (String countryId : removedCountries.get(pmfRecordId)) {
+          if (!stillCovered.contains(countryId) && currentCountries.containsKey(countryId)) {
+            countriesToRemove.add(countryId);
           }
         }
-        queryBuilder
-          .append(")")
-          .append(" and (mdm_status__c = 'Active' or mdm_status__c = 'Project')");
 
-        String query = queryBuilder.toString();
+        addChangedRecords(pmfRecordId, countriesToRemove, countriesToAdd, currentCountries, recordsToDelete, recordsToAdd);
+      }
+    }
+
+    // Add the PMF Impacted Country records to delete and add for a PMF to the lists.
+    private void addChangedRecords(
+      String pmfRecordId, Collection<String> countriesToRemove, Collection<String> countriesToAdd,
+      Map<String, String> currentCountries, List<Record> recordsToDelete, List<Record> recordsToAdd
+    ) {
+
+      RecordService recordService = ServiceLocator.locate(RecordService.class);
+
+      List<String> addedCountries = VaultCollections.newList();
+      List<String> removedCountries = VaultCollections.newList();
+      addedCountries.addAll(countriesToAdd);
+      removedCountries.addAll(countriesToRemove);
+      this.addedCountryRecordIds.put(pmfRecordId, addedCountries);
+      this.removedCountryRecordIds.put(pmfRecordId, removedCountries);
 
-        QueryService queryService = ServiceLocator.locate(QueryService.class);
-        QueryResponse queryResponse = queryService.query(query);
+      // Remove countries no longer applicable...
+      for (String countryId : countriesToRemove) {
+        String pmfImpactedCountryRecordId = currentCountries.get(countryId);
+        recordsToDelete.add(recordService.newRecordWithId("pmf_impacted_country__c", pmfImpactedCountryRecordId));
+      }
 
-        Iterator<QueryResult> qrIter = queryResponse.streamResults().iterator();
+      // ...and add new countries to the list of PMF Impacted Countries
+      for (String countryId : countriesToAdd) {
+        Record record = recordService.newRecord("pmf_impacted_country__c");
+        record.setValue("pmf__c", pmfRecordId);
+        record.setValue("country__c", countryId);
+        recordsToAdd.add(record);
+      }
+    }
 
-        while (qrIter.hasNext()) {
-          QueryResult qr = qrIter.next();
-          result.add(qr.getValue("country__c", ValueType.STRING));
+    // Return the union of the countries of a list of Global Codes
+    private static Set<String> getCountries(List<String> globalCodeRecordIds, Map<String, Set<String>> globalCodeCountries) {
+      Set<String> result = VaultCollections.newSet();
+      for (String globalCodeRecordId : globalCodeRecordIds) {
+        Set<String> countries = globalCodeCountries.get(globalCodeRecordId);
+        if (countries != null) {
+          result.addAll(countries);
         }
+      }
+      return result;
+    }
+
+    // Return the countries of the Global Code (SKU) Record Ids, keyed by Global Code.  If countryIds is not null,
+    // only those countries are returned.
+    private static Map<String, Set<String>> getGlobalCodeCountries(Collection<String> globalCodeRecordIds, Collection<String> countryIds) {
+
+      Map<String, Set<String>> result = VaultCollections.newMap();
+
+      VqlQuery query = VqlQuery.select("global_code_sku__c", "country__c")
+        .from("global_code_sku_country__c")
+        .whereIn("global_code_sku__c", globalCodeRecordIds)
+        .where("(mdm_status__c = 'Active' or mdm_status__c = 'Project')");
+      if (countryIds != null) {
+        query.whereIn("country__c", countryIds);
+      }
 
-      }  // end if (globalCodeRecordIds.size() > 0)
+      Iterator<QueryExecutionResult> qrIter = query.execute();
+
+      while (qrIter.hasNext()) {
+        QueryExecutionResult queryResult = qrIter.next();
+        String globalCodeRecordId = queryResult.getValue("global_code_sku__c", ValueType.STRING);
+        Set<String> countries = result.get(globalCodeRecordId);
+        if (countries == null) {
+          countries = VaultCollections.newSet();
+          result.put(globalCodeRecordId, countries);
+        }
+        countries.add(queryResult.getValue("country__c", ValueType.STRING));
+      }
 
       return result;
     }
 
-    // Return a map of all PMF Impacted Country (pmf_impacted_country__c) records for the PMF.
-    // Country record ID is the Key; PMF Impacted Country record ID is the Value.
-    Map<String, String> getCurrentPMFCountries() {
+    // Return all PMF Impacted Country (pmf_impacted_country__c) records for the PMF's, keyed by PMF record ID.
+    // Each PMF's map has the Country record ID as the Key, and the PMF Impacted Country record ID as the Value.
+    // Every PMF has an entry, even if it has no PMF Impacted Country records.
+    static Map<String, Map<String, String>> getCurrentPMFCountries(Collection<String> pmfRecordIds) {
+      return getCurrentPMFCountries(pmfRecordIds, null);
+    }
 
-      Map<String, String> result = VaultCollections.newMap();
+    // As above, but if countryIds is not null, only the PMF Impacted Country records for those countries.
+    static Map<String, Map<String, String>> getCurrentPMFCountries(Collection<String> pmfRecordIds, Collection<String> countryIds) {
 
-      String query = "select id, country__c from pmf_impacted_country__c where pmf__c = '"+pmfRecordId+"'";
+      Map<String, Map<String, String>> result = VaultCollections.newMap();
+      for (String pmfRecordId : pmfRecordIds) {
+        result.put(pmfRecordId, VaultCollections.newMap());
+      }
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
-      QueryResponse queryResponse = queryService.query(query);
+      VqlQuery query = VqlQuery.select("id", "pmf__c", "country__c")
+        .from("pmf_impacted_country__c")
+        .whereIn("pmf__c", pmfRecordIds);
+      if (countryIds != null) {
+        query.whereIn("country__c", countryIds);
+      }
 
-      Iterator<QueryResult> iter = queryResponse.streamResults().iterator();
+      Iterator<QueryExecutionResult> iter = query.execute();
 
       while (iter.hasNext()) {
-        QueryResult qr = iter.next();
-        result.put(
+        QueryExecutionResult qr = iter.next();
+        result.get(qr.getValue("pmf__c", ValueType.STRING)).put(
           qr.getValue("country__c", ValueType.STRING),
           qr.getValue("id", ValueType.STRING)
         );
@@ -0,0 +1,127 @@
+package com.veeva.vault.custom.udc;
+/*
+  A read-only copy of the commonly used fields of a PMF (pmf__c) record, loaded with a single query.
+
+  Snapshots are cached for the duration of the request (through QueryMemo), so asking for several fields
+  of the same PMF, from several triggers or actions, costs one query.  The cache is discarded when PMF
+  records are written through our own helpers (see QueryMemo.invalidate()).
+
+  Static methods in this class:
+
+  get - Return the snapshot of a PMF, or null if the PMF does not exist.
+  getAll - Return the snapshots of many PMF's, loading those that are not already cached with one query.
+*/
+
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.ValueType;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+@UserDefinedClassInfo
+public class PmfSnapshot {
+    public final String id;
+    public final String name;
+    public final String title;
+    public final String state;
+    public final String requestorId;
+    public final String objectTypeName;
+    public final boolean safetyVariation;
+    public final String logisticSiteId;
+    public final String countryId;
+    public final String brandId;
+    public final String businessUnit;
+
+    private static final String FIELDS =
+      "id, name__v, title__c, state__v, pmf_requestor__c, object_type__vr.api_name__v, safety_variation__c," +
+      " logistic_site__c, requestor_country__c, brand__c, business_unit__c";
+
+    public PmfSnapshot(QueryExecutionResult queryResult) {
+        this(queryResult, new StringPool());
+    }
+
+    // The values shared by many PMF's (state, type, site, country, brand, etc.) are interned in the pool
+    public PmfSnapshot(QueryExecutionResult queryResult, StringPool pool) {
+        Boolean safetyVariation = queryResult.getValue("safety_variation__c", ValueType.BOOLEAN);
+        this.id = queryResult.getValue("id", ValueType.STRING);
+        this.name = queryResult.getValue("name__v", ValueType.STRING);
+        this.title = queryResult.getValue("title__c", ValueType.STRING);
+        this.state = pool.intern(queryResult.getValue("state__v", ValueType.STRING));
+        this.requestorId = pool.intern(queryResult.getValue("pmf_requestor__c", ValueType.STRING));
+        this.objectTypeName = pool.intern(queryResult.getValue("object_type__vr.api_name__v", ValueType.STRING));
+        this.safetyVariation = safetyVariation != null && safetyVariation;
+        this.logisticSiteId = pool.intern(queryResult.getValue("logistic_site__c", ValueType.STRING));
+        this.countryId = pool.intern(queryResult.getValue("requestor_country__c", ValueType.STRING));
+        this.brandId = pool.intern(queryResult.getValue("brand__c", ValueType.STRING));
+        this.businessUnit = pool.intern(
+          Util.getSinglePicklistValue(queryResult.getValue("business_unit__c", ValueType.PICKLIST_VALUES))
+        );
+    }
+
+    /**
+     * Return the snapshot of a PMF, or null if the PMF does not exist.
+     * @param pmfId - String. PMF record ID
+     * @return PmfSnapshot
+     */
+    public static PmfSnapshot get(String pmfId) {
+        QueryExecutionResult queryResult = QueryUtil.queryOneMemoized(query(pmfId));
+        return queryResult == null ? null : new PmfSnapshot(queryResult);
+    }
+
+    /**
+     * Return the snapshots of many PMF's, keyed by PMF record ID.  PMF's that are not already cached are loaded
+     * with a single query, and cached, so that subsequent calls to get() for any of them do not query again.
+     * PMF's that do not exist are not included in the result.
+     * @param pmfIds - Collection<String>. PMF record ID's
+     * @return Map<String, PmfSnapshot>
+     */
+    public static Map<String, PmfSnapshot> getAll(Collection<String> pmfIds) {
+
+        Map<String, PmfSnapshot> snapshots = VaultCollections.newMap();
+        QueryMemo memo = QueryMemo.get();
+        StringPool pool = new StringPool();
+
+        List<String> idsToLoad = VaultCollections.newList();
+        for (String pmfId : pmfIds) {
+            List<QueryExecutionResult> cached = memo.getResults(query(pmfId));
+            if (cached == null) {
+                idsToLoad.add(pmfId);
+            } else if (cached.size() > 0) {
+                snapshots.put(pmfId, new PmfSnapshot(cached.get(0), pool));
+            }
+        }
+
+        if (idsToLoad.size() > 0) {
+
+            Iterator<QueryExecutionResult> iter = VqlQuery.select(FIELDS)
+              .from(PMF.ObjectName)
+              .whereIn("id", idsToLoad)
+              .execute();
+
+            while (iter.hasNext()) {
+                QueryExecutionResult queryResult = iter.next();
+                PmfSnapshot snapshot = new PmfSnapshot(queryResult, pool);
+                snapshots.put(snapshot.id, snapshot);
+                memo.putResults(query(snapshot.id), VaultCollections.asList(queryResult));
+            }
+
+            // remember PMF's that were not found, too
+            for (String pmfId : idsToLoad) {
+                if (!snapshots.containsKey(pmfId)) {
+                    memo.putResults(query(pmfId), VaultCollections.newList());
+                }
+            }
+        }
+
+        return snapshots;
+    }
+
+    // the query for a single PMF; this is also the key under which the PMF's snapshot is cached
+    private static String query(String pmfId) {
+        return "select " + FIELDS + " from " + PMF.ObjectName + " where id = " + VqlQuery.literal(pmfId);
+    }
+}
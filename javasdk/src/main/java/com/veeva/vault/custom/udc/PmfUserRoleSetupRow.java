@@ -0,0 +1,71 @@
+package com.veeva.vault.custom.udc;
+/*
+  A compact, read-only copy of the fields of a PMF User Role Setup (pmf_user_role_setup__c) record
+  that are used to select users for PMF roles.  Rows are copied out of the query results as they
+  are read, one page at a time, so the query results themselves are not retained.  Field values are
+  interned in a StringPool, since the same few users, roles, countries, regions, business units and
+  brands appear on many rows.
+
+  Static methods in this class:
+
+  query - Return the rows matching a VQL where clause.
+*/
+
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.ValueType;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
+
+import java.util.Iterator;
+import java.util.List;
+
+@UserDefinedClassInfo
+public class PmfUserRoleSetupRow {
+    public final String userId;
+    public final String roleId;
+    public final String countryId;
+    public final String regionId;
+    public final String businessUnit;
+    public final String brandId;
+    public final String logisticSiteId;
+
+    private static final String SELECT_FIELDS =
+      "select user__c, role__c, business_unit__c, brand__c, country__c, region__c, logistic_site__c" +
+      " from pmf_user_role_setup__c";
+
+    private static final int PAGE_SIZE = 1000;
+
+    public PmfUserRoleSetupRow(QueryExecutionResult queryResult, StringPool pool) {
+        this.userId = pool.intern(queryResult.getValue("user__c", ValueType.STRING));
+        this.roleId = pool.intern(queryResult.getValue("role__c", ValueType.STRING));
+        this.countryId = pool.intern(queryResult.getValue("country__c", ValueType.STRING));
+        this.regionId = pool.intern(queryResult.getValue("region__c", ValueType.STRING));
+        this.businessUnit = pool.intern(
+          Util.getSinglePicklistValue(queryResult.getValue("business_unit__c", ValueType.PICKLIST_VALUES))
+        );
+        this.brandId = pool.intern(queryResult.getValue("brand__c", ValueType.STRING));
+        this.logisticSiteId = pool.intern(queryResult.getValue("logistic_site__c", ValueType.STRING));
+    }
+
+    /**
+     * Return the PMF User Role Setup rows matching a VQL where clause.
+     * @param whereClause - String. e.g. "role__c = '0RL000000001001'"
+     * @param pool - StringPool.  The pool in which to intern the rows' field values.
+     * @return List<PmfUserRoleSetupRow>
+     */
+    public static List<PmfUserRoleSetupRow> query(String whereClause, StringPool pool) {
+
+        List<PmfUserRoleSetupRow> rows = VaultCollections.newList();
+
+        Iterator<PmfUserRoleSetupRow> iter = QueryUtil.queryPaged(
+          SELECT_FIELDS + " where " + whereClause + " order by id", PAGE_SIZE,
+          queryResult -> new PmfUserRoleSetupRow(queryResult, pool)
+        );
+
+        while (iter.hasNext()) {
+            rows.add(iter.next());
+        }
+
+        return rows;
+    }
+}
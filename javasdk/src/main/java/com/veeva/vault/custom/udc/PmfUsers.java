@@ -1,20 +1,25 @@
 package com.veeva.vault.custom.udc;
 
-import com.veeva.vault.sdk.api.core.ServiceLocator;
 import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
 import com.veeva.vault.sdk.api.core.ValueType;
 import com.veeva.vault.sdk.api.core.VaultCollections;
-import com.veeva.vault.sdk.api.query.QueryResponse;
+import com.veeva.vault.sdk.api.data.Record;
 import com.veeva.vault.sdk.api.query.QueryResult;
-import com.veeva.vault.sdk.api.query.QueryService;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This class manages access to the PMF User Role Setup (pmf_user_role_setup__c) object, and
  * contains the logic to identify the users who should occupy the Regulatory and Plant Reviewer
  * roles for a PMF.
+ *
+ * PMF User Role Setup records are loaded only for the role (or, for Plant Reviewers, the role and
+ * logistic site) being resolved, and are indexed as they are loaded, so that resolving the users for
+ * a PMF takes a handful of map lookups regardless of the number of setup records.
  */
 
 @UserDefinedClassInfo
@@ -23,12 +28,32 @@ public class PmfUsers {
     private static final String CONSUMER_BU = "cx__c";
     private static final String PHARMACEUTICAL_BU = "rx__c";
 
-    private List<QueryResult> usersQueryResults;  // all records from "PMF User Role Setup" (pmf_user_role_setup__c)
-
     private Countries countries = null; // for assigning region-based regulatory reviewers
 
+    private static final String WILDCARD = "*";
+
+    // key: see indexRow(); value: list of user id's
+    private Map<String, List<String>> userIndex;
+
+    // roles (by id) and role/site keys whose PMF User Role Setup records have been loaded into the index
+    private Set<String> loadedScopes;
+
+    // shared by all rows loaded into the index; see PmfUserRoleSetupRow
+    private StringPool stringPool;
+
+    private String regulatoryRoleId;
+    private String reviewerRoleId;
+    private String plantReviewerRoleId;
+    private String usCountryId;
+
     public PmfUsers() {
-      this.usersQueryResults = getPMFUserRecords();
+      this.userIndex = VaultCollections.newMap();
+      this.loadedScopes = VaultCollections.newSet();
+      this.stringPool = new StringPool();
+      this.regulatoryRoleId = Util.getRoleId("regulatory__c");
+      this.reviewerRoleId = Util.getRoleId("pmf_reviewer__c");
+      this.plantReviewerRoleId = Util.getRoleId("pmf_plant_reviewer__c");
+      this.usCountryId = Util.getUSCountryId();
     }
 
     /**
@@ -37,11 +62,10 @@ public class PmfUsers {
      */
     public static List<String> getUserIdsAll() {
 
-        QueryService queryService = ServiceLocator.locate(QueryService.class);
         List<String> userIds = VaultCollections.newList();
         String query = "select user__c from pmf_user_role_setup__c";
 
-        Iterator<QueryResult> iterator = queryService.query(query).streamResults().iterator();
+        Iterator<QueryResult> iterator = QueryUtil.queryLegacy(query).streamResults().iterator();
 
         while (iterator.hasNext()) {
             QueryResult qr = (QueryResult) iterator.next();
@@ -52,31 +76,6 @@ public class PmfUsers {
         return userIds;
     }
 
-  /**
-   * Returns a QueryResponse of a query of all PMF User records including all fields.
-   * This QueryResponse can be used in subsequent calls to methods in this Class.
-   * @return QueryResponse
-   */
-//  private static QueryResponse getPMFUserRecords() {
-    private static List<QueryResult> getPMFUserRecords() {
-
-      List<QueryResult> queryResults = VaultCollections.newList();
-
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
-      QueryResponse qResponse = queryService.query(
-        "select user__c, role__c, business_unit__c, brand__c, country__c, region__c, logistic_site__c, pmf_type__c" +
-          " from pmf_user_role_setup__c"
-      );
-
-      Iterator<QueryResult> iter = qResponse.streamResults().iterator();
-
-      while (iter.hasNext()) {
-        queryResults.add(iter.next());
-      }
-
-      return queryResults;
-  }
-
   /**
    * Return a Set of Regulatory User ID's based on the provided parameters.
    * @param pmfCountry - String. the ID of the PMF's country
@@ -88,56 +87,35 @@ public class PmfUsers {
    */
   public List<String> getRegulatoryUsers(String pmfCountry, String pmfBU, String pmfBrand, String pmfType) {
 
-      if (this.countries == null) {
-        this.countries = new Countries(); // this is for resolving region-based Regulatory
+      loadRole(this.regulatoryRoleId);
+
+      List<String> countryKeys = VaultCollections.newList();
+      List<String> regionKeys = VaultCollections.newList();
+
+      if (pmfCountry.equals(this.usCountryId)) {
+        // US PMF's are reviewed only by users set up for the US, whatever their region (see indexRow())...
+        countryKeys.add(pmfCountry);
+        regionKeys.add(WILDCARD);
+      } else {
+        // ...and non-US PMF's by users set up for the country, the country's region, or all (non-US) countries
+        countryKeys.add(pmfCountry);
+        countryKeys.add(WILDCARD);
+        regionKeys.add(WILDCARD);
+        addKey(regionKeys, getCountries().getRegion(pmfCountry));
       }
 
       List<String> userIds = VaultCollections.newList();
+      Set<String> found = VaultCollections.newSet();
 
-      String regulatoryRoleId = Util.getRoleId("regulatory__c");
-      String USCountryId = Util.getUSCountryId();
-
-      Iterator<QueryResult> iterator = this.usersQueryResults.iterator();
-
-      while (iterator.hasNext()) {
-
-        QueryResult user = iterator.next();
-        String userId = user.getValue("user__c", ValueType.STRING);
-        String userRole = user.getValue("role__c", ValueType.STRING);
-        String userCountry = user.getValue("country__c", ValueType.STRING);
-        String userRegion = user.getValue("region__c", ValueType.STRING);
-        String userBU = Util.getSinglePicklistValue(user.getValue("business_unit__c", ValueType.PICKLIST_VALUES));
-        String userBrand = user.getValue("brand__c", ValueType.STRING);
-        String userPmfType = Util.getSinglePicklistValue(user.getValue("pmf_type__c", ValueType.PICKLIST_VALUES));
-
-        if (userRole.equals(regulatoryRoleId)) {
-
-          if (pmfCountry.equals(USCountryId)) {
-            if (userCountry != null && userCountry.equals(USCountryId)) {
-              if (
-                  (userBU == null || userBU.equals(pmfBU)) &&
-                  (userBrand == null || userBrand.equals(pmfBrand))
-              ) {
-                  userIds.add(userId);
-              }
-            }
-          } else {
-            // PMF country is not US...
-            if (userCountry == null || !userCountry.equals(USCountryId)) {
-              if (
-                  (userBU == null || userBU.equals(pmfBU)) &&
-                  (userBrand == null || userBrand.equals(pmfBrand)) &&
-                  (userRegion == null || userRegion.equals(countries.getRegion(pmfCountry))) &&
-                  (userCountry == null || userCountry.equals(pmfCountry))
-              ) {
-                userIds.add(userId);
-              }
+      for (String country : countryKeys) {
+        for (String region : regionKeys) {
+          for (String bu : wildcardKeys(pmfBU)) {
+            for (String brand : wildcardKeys(pmfBrand)) {
+              collectUsers(indexKey(this.regulatoryRoleId, country, region, bu, brand), userIds, found);
             }
           }
-
         }
-
-      } // end while
+      }
 
       return userIds;
     }
@@ -156,32 +134,18 @@ public class PmfUsers {
    */
   public List<String> getNonRegulatoryReviewers(String pmfCountry, String pmfBU, String pmfBrand) {
 
-    List<String> userIds = VaultCollections.newList();
-
-    String reviewerRoleId = Util.getRoleId("pmf_reviewer__c");
-
-    Iterator<QueryResult> iterator = this.usersQueryResults.iterator();
+    loadRole(this.reviewerRoleId);
 
-    while (iterator.hasNext()) {
-
-      QueryResult user = iterator.next();
-      String userId = user.getValue("user__c", ValueType.STRING);
-      String userRole = user.getValue("role__c", ValueType.STRING);
-      String userCountry = user.getValue("country__c", ValueType.STRING);
-      String userBU = Util.getSinglePicklistValue(user.getValue("business_unit__c", ValueType.PICKLIST_VALUES));
-      String userBrand = user.getValue("brand__c", ValueType.STRING);
+    List<String> userIds = VaultCollections.newList();
+    Set<String> found = VaultCollections.newSet();
 
-      if (userRole.equals(reviewerRoleId)) {
-        if (userCountry == null || userCountry.equals(pmfCountry)) {
-          if (userBU == null || userBU.equals(pmfBU)) {
-            if (userBrand == null || userBrand.equals(pmfBrand)) {
-              userIds.add(userId);
-            }
-          }
+    for (String country : wildcardKeys(pmfCountry)) {
+      for (String bu : wildcardKeys(pmfBU)) {
+        for (String brand : wildcardKeys(pmfBrand)) {
+          collectUsers(indexKey(this.reviewerRoleId, country, WILDCARD, bu, brand), userIds, found);
         }
       }
-
-    } // end while
+    }
 
     return userIds;
   }
@@ -196,24 +160,221 @@ public class PmfUsers {
 
       List<String> userIds = VaultCollections.newList();
 
-      String plantReviewRoleId = Util.getRoleId("pmf_plant_reviewer__c");
+      if (pmfLogisticSite != null) {
+        loadSite(this.plantReviewerRoleId, pmfLogisticSite);
+        collectUsers(siteIndexKey(this.plantReviewerRoleId, pmfLogisticSite), userIds, VaultCollections.newSet());
+      }
 
-      Iterator<QueryResult> iterator = this.usersQueryResults.iterator();
+      return userIds;
+    }
 
-      while (iterator.hasNext()) {
+  /**
+   * Return the Regulatory users for each of a collection of PMF records, keyed by PMF record ID.
+   * PMF's are grouped by Country, Business Unit and Brand, and the users are resolved once per group,
+   * so the cost depends on the number of distinct groups rather than the number of PMF's.
+   * PMF's in the same group share the same List instance in the returned Map.
+   * @param pmfRecords - Collection<Record>. PMF records, including id, requestor_country__c,
+   *                   business_unit__c and brand__c.
+   * @return Map<String, List<String>> - key: PMF record ID; value: list of regulatory user id's
+   */
+  public Map<String, List<String>> getRegulatoryUsers(Collection<Record> pmfRecords) {
 
-        QueryResult user = iterator.next();
+    Map<String, List<String>> usersByPmf = VaultCollections.newMap();
+    Map<String, List<String>> usersByGroup = VaultCollections.newMap();
 
-        String userRole = user.getValue("role__c", ValueType.STRING);
-        String userLogisticSite = user.getValue("logistic_site__c", ValueType.STRING);
+    for (Record pmfRecord : pmfRecords) {
 
-        if (userRole.equals(plantReviewRoleId)) {
-          if (pmfLogisticSite != null && userLogisticSite != null && userLogisticSite.equals(pmfLogisticSite)) {
-            userIds.add(user.getValue("user__c", ValueType.STRING));
-          }
+      String pmfId = pmfRecord.getValue("id", ValueType.STRING);
+      String countryId = pmfRecord.getValue("requestor_country__c", ValueType.STRING);
+      String businessUnit = Util.getSinglePicklistValue(pmfRecord.getValue("business_unit__c", ValueType.PICKLIST_VALUES));
+      String pmfBrand = pmfRecord.getValue("brand__c", ValueType.STRING);
+
+      // PMF Type is not used to select Regulatory users, so it is not part of the group key
+      String groupKey = countryId + "|" + businessUnit + "|" + pmfBrand;
+
+      List<String> userIds = usersByGroup.get(groupKey);
+      if (userIds == null) {
+        userIds = getRegulatoryUsers(countryId, businessUnit, pmfBrand, null);
+        usersByGroup.put(groupKey, userIds);
+      }
+
+      usersByPmf.put(pmfId, userIds);
+    }
+
+    return usersByPmf;
+  }
+
+  /**
+   * Return the Plant Reviewer users for each of a collection of PMF records, keyed by PMF record ID.
+   * The PMF User Role Setup records for all of the PMF's Logistic Sites are loaded with a single query,
+   * and the users are resolved once per Logistic Site.
+   * PMF's with the same Logistic Site share the same List instance in the returned Map.
+   * @param pmfRecords - Collection<Record>. PMF records, including id and logistic_site__c.
+   * @return Map<String, List<String>> - key: PMF record ID; value: list of plant reviewer user id's
+   */
+  public Map<String, List<String>> getPlantReviewers(Collection<Record> pmfRecords) {
+
+    Map<String, List<String>> usersByPmf = VaultCollections.newMap();
+    Map<String, List<String>> usersBySite = VaultCollections.newMap();
+
+    Set<String> logisticSites = VaultCollections.newSet();
+    for (Record pmfRecord : pmfRecords) {
+      String logisticSite = pmfRecord.getValue("logistic_site__c", ValueType.STRING);
+      if (logisticSite != null) {
+        logisticSites.add(logisticSite);
+      }
+    }
+    loadSites(this.plantReviewerRoleId, logisticSites);
+
+    for (Record pmfRecord : pmfRecords) {
+
+      String pmfId = pmfRecord.getValue("id", ValueType.STRING);
+      String logisticSite = pmfRecord.getValue("logistic_site__c", ValueType.STRING);
+      String groupKey = String.valueOf(logisticSite);
+
+      List<String> userIds = usersBySite.get(groupKey);
+      if (userIds == null) {
+        userIds = getPlantReviewers(logisticSite);
+        usersBySite.put(groupKey, userIds);
+      }
+
+      usersByPmf.put(pmfId, userIds);
+    }
+
+    return usersByPmf;
+  }
+
+  /*
+     Load the PMF User Role Setup records for a role into the index, unless they have already been loaded.
+  */
+  private void loadRole(String roleId) {
+    if (this.loadedScopes.add(roleId)) {
+      for (PmfUserRoleSetupRow row : PmfUserRoleSetupRow.query("role__c = '" + roleId + "'", this.stringPool)) {
+        indexRow(row);
+      }
+    }
+  }
+
+  /*
+     Load the PMF User Role Setup records for a role and logistic site into the index, unless they have
+     already been loaded, either for the site or for the role as a whole.
+  */
+  private void loadSite(String roleId, String logisticSite) {
+    if (!this.loadedScopes.contains(roleId) && this.loadedScopes.add(siteIndexKey(roleId, logisticSite))) {
+      List<PmfUserRoleSetupRow> rows = PmfUserRoleSetupRow.query(
+        "role__c = '" + roleId + "' and logistic_site__c = '" + logisticSite + "'", this.stringPool
+      );
+      for (PmfUserRoleSetupRow row : rows) {
+        indexRow(row);
+      }
+    }
+  }
+
+  /*
+     Load the PMF User Role Setup records for a role and several logistic sites into the index with a
+     single query, skipping sites that have already been loaded.
+  */
+  private void loadSites(String roleId, Set<String> logisticSites) {
+    if (this.loadedScopes.contains(roleId)) {
+      return;
+    }
+    List<String> sitesToLoad = VaultCollections.newList();
+    for (String logisticSite : logisticSites) {
+      if (this.loadedScopes.add(siteIndexKey(roleId, logisticSite))) {
+        sitesToLoad.add(logisticSite);
+      }
+    }
+    if (sitesToLoad.size() > 0) {
+      List<PmfUserRoleSetupRow> rows = PmfUserRoleSetupRow.query(
+        "role__c = '" + roleId + "' and logistic_site__c contains " + Util.vqlContains(sitesToLoad),
+        this.stringPool
+      );
+      for (PmfUserRoleSetupRow row : rows) {
+        indexRow(row);
+      }
+    }
+  }
+
+  /*
+     File a PMF User Role Setup record in the index under a single key:
+
+        Plant Reviewers:     <role id>|S:<logistic site id>
+        all other roles:     <role id>|<country id>|<region id>|<business unit>|<brand id>
+
+     where a blank field is filed under the WILDCARD.  Region is part of the key only for non-US Regulatory
+     users; for US Regulatory users and other roles it is always the WILDCARD because the region is not
+     considered when selecting them.
+     Eligible users are then found by probing the index with each combination of the PMF's value and the
+     WILDCARD for each field, rather than by scanning all records.
+
+     Note: the PMF Type on PMF User Role Setup records is not used to select users, so it is not indexed.
+  */
+  private void indexRow(PmfUserRoleSetupRow row) {
+    if (row.roleId.equals(this.plantReviewerRoleId)) {
+      if (row.logisticSiteId != null) {
+        addToIndex(siteIndexKey(row.roleId, row.logisticSiteId), row.userId);
+      }
+    } else {
+      boolean regionalRow = row.roleId.equals(this.regulatoryRoleId) && !this.usCountryId.equals(row.countryId);
+      String region = regionalRow ? row.regionId : null;
+      addToIndex(
+        indexKey(row.roleId, wildcard(row.countryId), wildcard(region), wildcard(row.businessUnit), wildcard(row.brandId)),
+        row.userId
+      );
+    }
+  }
+
+  private void addToIndex(String key, String userId) {
+    List<String> userIds = this.userIndex.get(key);
+    if (userIds == null) {
+      userIds = VaultCollections.newList();
+      this.userIndex.put(key, userIds);
+    }
+    userIds.add(userId);
+  }
+
+  // Add the users filed under the key to the list, skipping users that were already found
+  private void collectUsers(String key, List<String> userIds, Set<String> found) {
+    List<String> indexedUserIds = this.userIndex.get(key);
+    if (indexedUserIds != null) {
+      for (String userId : indexedUserIds) {
+        if (found.add(userId)) {
+          userIds.add(userId);
         }
       }
+    }
+  }
 
-      return userIds;
+  private Countries getCountries() {
+    if (this.countries == null) {
+      this.countries = new Countries(); // this is for resolving region-based Regulatory
     }
+    return this.countries;
+  }
+
+  private static String indexKey(String roleId, String country, String region, String bu, String brand) {
+    return roleId + "|" + country + "|" + region + "|" + bu + "|" + brand;
+  }
+
+  private static String siteIndexKey(String roleId, String logisticSite) {
+    return roleId + "|S:" + logisticSite;
+  }
+
+  private static String wildcard(String value) {
+    return value == null ? WILDCARD : value;
+  }
+
+  // Return the keys to probe for a PMF value: the value itself, and the WILDCARD
+  private static List<String> wildcardKeys(String value) {
+    List<String> keys = VaultCollections.newList();
+    addKey(keys, value);
+    addKey(keys, WILDCARD);
+    return keys;
+  }
+
+  private static void addKey(List<String> keys, String key) {
+    if (key != null && !keys.contains(key)) {
+      keys.add(key);
+    }
+  }
 }
\ No newline at end of file
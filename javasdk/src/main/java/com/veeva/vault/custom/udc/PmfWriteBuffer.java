@@ -0,0 +1,141 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.RequestContext;
+import com.veeva.vault.sdk.api.core.RequestContextValue;
+import com.veeva.vault.sdk.api.core.ServiceLocator;
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.data.Record;
+import com.veeva.vault.sdk.api.data.RecordService;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Request-scoped buffer of pending field updates to PMF (pmf__c) records.  Updates to the same PMF are
+ * merged, so that a PMF is saved once, in a single batch with all other buffered PMF's, no matter how many
+ * of our helpers (e.g. PMF.updateLogisticSites, PMF.updateGlobalCodesAndCountriesDisplay) update its fields.
+ * Each save of a PMF fires the pmf__c triggers (including PopulatePmfRoles), so fewer saves means fewer
+ * role recalculations.
+ *
+ * Updates are buffered only between begin() and end(); the outermost end() flushes them.  Outside of
+ * begin()/end(), each write is saved immediately, so helpers behave the same whether or not their caller
+ * uses the buffer.  Buffered values are not visible to queries (or PmfSnapshot) until they are flushed.
+ *
+ * Usage:
+ *
+ *    PmfWriteBuffer.begin();
+ *    PMF.updateLogisticSites(...);
+ *    PMF.updateGlobalCodesAndCountriesDisplay(...);
+ *    PmfWriteBuffer.end();    // one batch save
+ */
+
+@UserDefinedClassInfo(name = "pmf_writebuffer__c")
+public class PmfWriteBuffer implements RequestContextValue {
+
+    public static final String ContextName = "pmfWriteBuffer";
+
+    private Map<String, Map<String, String>> pendingValues;  // key: PMF record id; value: field name -> value
+    private List<String> pmfRecordIds;  // in the order first written
+    private int depth;  // number of begin()'s without a matching end()
+
+    public PmfWriteBuffer() {
+      //parameter-less constructor required by the system
+      this.pendingValues = VaultCollections.newMap();
+      this.pmfRecordIds = VaultCollections.newList();
+      this.depth = 0;
+    }
+
+    /**
+     * Return the buffer for the current request, creating it if it does not yet exist.
+     * @return PmfWriteBuffer
+     */
+    public static PmfWriteBuffer get() {
+      PmfWriteBuffer buffer = RequestContext.get().getValue(ContextName, PmfWriteBuffer.class);
+      if (buffer == null) {
+        buffer = new PmfWriteBuffer();
+        RequestContext.get().setValue(ContextName, buffer);
+      }
+      return buffer;
+    }
+
+    /**
+     * Start buffering PMF field updates.  Calls may be nested.
+     */
+    public static void begin() {
+      PmfWriteBuffer buffer = get();
+      buffer.depth++;
+      buffer.save();
+    }
+
+    /**
+     * Stop buffering PMF field updates.  The outermost end() saves all of the buffered updates.
+     */
+    public static void end() {
+      PmfWriteBuffer buffer = get();
+      if (buffer.depth > 0) {
+        buffer.depth--;
+      }
+      buffer.save();
+      if (buffer.depth == 0) {
+        buffer.flush();
+      }
+    }
+
+    /**
+     * Set a field value on a PMF.  The value replaces any value for the same field already buffered.
+     * Outside of begin()/end(), the PMF is saved immediately.
+     * @param pmfRecordId - String
+     * @param fieldName - String. e.g. "logistic_site__c"
+     * @param value - String.  May be null, to clear the field.
+     */
+    public static void setValue(String pmfRecordId, String fieldName, String value) {
+      PmfWriteBuffer buffer = get();
+      Map<String, String> values = buffer.pendingValues.get(pmfRecordId);
+      if (values == null) {
+        values = VaultCollections.newMap();
+        buffer.pendingValues.put(pmfRecordId, values);
+        buffer.pmfRecordIds.add(pmfRecordId);
+      }
+      values.put(fieldName, value);
+      buffer.save();
+      if (buffer.depth == 0) {
+        buffer.flush();
+      }
+    }
+
+    /**
+     * Save all buffered updates, one record per PMF, in as few batches as possible, and discard the
+     * request's memoized pmf__c query results.
+     */
+    public void flush() {
+
+      if (this.pmfRecordIds.size() == 0) {
+        return;
+      }
+
+      RecordService recordService = ServiceLocator.locate(RecordService.class);
+
+      List<Record> pmfRecords = VaultCollections.newList();
+      for (String pmfRecordId : this.pmfRecordIds) {
+        Record pmfRecord = recordService.newRecordWithId(PMF.ObjectName, pmfRecordId);
+        for (Map.Entry<String, String> entry : this.pendingValues.get(pmfRecordId).entrySet()) {
+          pmfRecord.setValue(entry.getKey(), entry.getValue());
+        }
+        pmfRecords.add(pmfRecord);
+      }
+
+      // clear the buffer before saving, since the save fires the pmf__c triggers, which may write again
+      this.pendingValues = VaultCollections.newMap();
+      this.pmfRecordIds = VaultCollections.newList();
+      save();
+
+      Util.saveRecords(pmfRecords, "Failed to update the PMF due to: ");
+
+      QueryMemo.invalidate(PMF.ObjectName);
+    }
+
+    private void save() {
+      RequestContext.get().setValue(ContextName, this);
+    }
+}
@@ -0,0 +1,156 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.RequestContext;
+import com.veeva.vault.sdk.api.core.RequestContextValue;
+import com.veeva.vault.sdk.api.core.StringUtils;
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Request-scoped memo of query results, used by QueryUtil.queryMemoized().  Results are keyed by the
+ * normalized VQL query string (see normalize()), so the same query executed several times in one
+ * request/transaction, e.g. by several triggers on the same save, hits Vault only once.
+ *
+ * Memoized results are discarded for an object when records of that object are written through our
+ * own helpers (see invalidate()).  Memoization is therefore opt-in, and should be used only for queries
+ * on data that is not changed by other means during the request.
+ */
+
+@UserDefinedClassInfo(name = "pmf_querymemo__c")
+public class QueryMemo implements RequestContextValue {
+
+    public static final String ContextName = "pmfQueryMemo";
+
+    private Map<String, List<QueryExecutionResult>> results;  // key: normalized query
+    private Map<String, String> objectNames;  // key: normalized query; value: the object queried
+    private int hits;
+    private int misses;
+
+    public QueryMemo() {
+      //parameter-less constructor required by the system
+      this.results = VaultCollections.newMap();
+      this.objectNames = VaultCollections.newMap();
+      this.hits = 0;
+      this.misses = 0;
+    }
+
+    /**
+     * Return the memo for the current request, creating it if it does not yet exist.
+     * @return QueryMemo
+     */
+    public static QueryMemo get() {
+      QueryMemo memo = RequestContext.get().getValue(ContextName, QueryMemo.class);
+      if (memo == null) {
+        memo = new QueryMemo();
+        RequestContext.get().setValue(ContextName, memo);
+      }
+      return memo;
+    }
+
+    /**
+     * Return the memoized results for a query, or null if the query has not been memoized.
+     * @param query - String. VQL query
+     * @return List<QueryExecutionResult>
+     */
+    public List<QueryExecutionResult> getResults(String query) {
+      List<QueryExecutionResult> queryResults = this.results.get(normalize(query));
+      if (queryResults == null) {
+        this.misses++;
+      } else {
+        this.hits++;
+      }
+      save();
+      return queryResults;
+    }
+
+    /**
+     * Memoize the results of a query.
+     * @param query - String. VQL query
+     * @param queryResults - List<QueryExecutionResult>
+     */
+    public void putResults(String query, List<QueryExecutionResult> queryResults) {
+      String key = normalize(query);
+      this.results.put(key, queryResults);
+      this.objectNames.put(key, getObjectName(key));
+      save();
+    }
+
+    /**
+     * Discard the memoized results of all queries on an object.  Call this after writing records of the object.
+     * @param objectName - String. e.g. "pmf__c"
+     */
+    public static void invalidate(String objectName) {
+      QueryMemo memo = RequestContext.get().getValue(ContextName, QueryMemo.class);
+      if (memo == null) {
+        return;  // nothing memoized in this request
+      }
+      List<String> keys = VaultCollections.newList();
+      for (Map.Entry<String, String> entry : memo.objectNames.entrySet()) {
+        if (objectName.equalsIgnoreCase(entry.getValue())) {
+          keys.add(entry.getKey());
+        }
+      }
+      for (String key : keys) {
+        memo.results.remove(key);
+        memo.objectNames.remove(key);
+      }
+      memo.save();
+    }
+
+    /**
+     * Return a one-line summary of the memo's hit/miss counters, suitable for logging.
+     * @return String
+     */
+    public String getStatistics() {
+      return "Query memo: " + this.results.size() + " queries, " + this.hits + " hits, " + this.misses + " misses";
+    }
+
+    /**
+     * Return the query with runs of whitespace outside of string literals replaced by a single space,
+     * and leading and trailing whitespace removed.
+     * @param query - String
+     * @return String
+     */
+    public static String normalize(String query) {
+      StringBuilder normalized = new StringBuilder();
+      boolean inLiteral = false;
+      boolean pendingSpace = false;
+      for (int i = 0; i < query.length(); i++) {
+        char c = query.charAt(i);
+        if (!inLiteral && Character.isWhitespace(c)) {
+          pendingSpace = normalized.length() > 0;
+          continue;
+        }
+        if (pendingSpace) {
+          normalized.append(' ');
+          pendingSpace = false;
+        }
+        normalized.append(c);
+        if (c == '\\' && inLiteral && i + 1 < query.length()) {
+          normalized.append(query.charAt(++i));  // escaped character
+        } else if (c == '\'') {
+          inLiteral = !inLiteral;
+        }
+      }
+      return normalized.toString();
+    }
+
+    // Return the name of the object (the word following "from") in a normalized query
+    private static String getObjectName(String normalizedQuery) {
+      String[] words = StringUtils.split(normalizedQuery, " ");
+      for (int i = 0; i < words.length - 1; i++) {
+        if (words[i].equalsIgnoreCase("from")) {
+          return words[i + 1];
+        }
+      }
+      return null;
+    }
+
+    private void save() {
+      RequestContext.get().setValue(ContextName, this);
+    }
+}
@@ -0,0 +1,264 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.RequestContext;
+import com.veeva.vault.sdk.api.core.RequestContextValue;
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Request-scoped counters for the VQL queries executed through QueryUtil: the number of queries, the
+ * number of rows returned and the elapsed time, attributed to the component (trigger, action or job)
+ * that is currently running.  Queries are also grouped by "shape", i.e. the query with literal values
+ * replaced by '?', so that the same query executed in a loop (N+1) shows up as a single line.
+ *
+ * A component calls begin() when it starts and end() when it finishes, in a finally block so that the stack
+ * of running components stays balanced if the component throws.  end() logs a summary for the component,
+ * including the TOP_N query shapes by total elapsed time, and discards its counters.  Components can be
+ * nested (e.g. a trigger fired by a save in an action); queries are attributed to the innermost component.
+ * Counters are kept per stack frame rather than per component name, so a nested run of the same component
+ * does not disturb the outer run's counters.
+ *
+ * The metrics are saved to the RequestContext by begin() and end() only; record() updates the instance held
+ * by the RequestContext in place, and does nothing while no component is running.
+ *
+ * Usage:
+ *
+ *    QueryMetrics.begin("GatherGlobalCodes");
+ *    try {
+ *      ...
+ *    } finally {
+ *      QueryMetrics.end(new Logger());
+ *    }
+ */
+
+@UserDefinedClassInfo(name = "pmf_querymetrics__c")
+public class QueryMetrics implements RequestContextValue {
+
+    public static final String ContextName = "pmfQueryMetrics";
+
+    public static final int TOP_N = 5;
+
+    private static final String SEPARATOR = "\t";
+
+    private List<String> components;  // stack of running components; the last is the innermost
+
+    // key: frame, i.e. the component's position in the stack (see currentFrame())
+    private Map<String, Long> queryCounts;
+    private Map<String, Long> rowCounts;
+    private Map<String, Long> elapsedMillis;
+
+    // key: frame + SEPARATOR + query shape
+    private Map<String, Long> shapeCounts;
+    private Map<String, Long> shapeMillis;
+    private Map<String, Long> shapeMaxMillis;
+
+    public QueryMetrics() {
+      //parameter-less constructor required by the system
+      this.components = VaultCollections.newList();
+      this.queryCounts = VaultCollections.newMap();
+      this.rowCounts = VaultCollections.newMap();
+      this.elapsedMillis = VaultCollections.newMap();
+      this.shapeCounts = VaultCollections.newMap();
+      this.shapeMillis = VaultCollections.newMap();
+      this.shapeMaxMillis = VaultCollections.newMap();
+    }
+
+    /**
+     * Return the metrics for the current request, creating them if they do not yet exist.
+     * @return QueryMetrics
+     */
+    public static QueryMetrics get() {
+      QueryMetrics metrics = RequestContext.get().getValue(ContextName, QueryMetrics.class);
+      if (metrics == null) {
+        metrics = new QueryMetrics();
+        RequestContext.get().setValue(ContextName, metrics);
+      }
+      return metrics;
+    }
+
+    /**
+     * Start attributing queries to a component.
+     * @param component - String. e.g. the trigger, action or job class name
+     */
+    public static void begin(String component) {
+      QueryMetrics metrics = get();
+      metrics.components.add(component);
+      metrics.clear(metrics.currentFrame());
+      metrics.save();
+    }
+
+    /**
+     * Log a summary of the queries executed by the innermost running component, and stop attributing
+     * queries to it.
+     * @param logger - Logger
+     */
+    public static void end(Logger logger) {
+      QueryMetrics metrics = get();
+      if (metrics.components.size() == 0) {
+        return;
+      }
+      String frame = metrics.currentFrame();
+      logger.info(metrics.getSummary(frame, metrics.components.get(metrics.components.size() - 1)));
+      metrics.clear(frame);
+      metrics.components.remove(metrics.components.size() - 1);
+      metrics.save();
+    }
+
+    /**
+     * Record the execution of a query against the innermost running component.  Called by QueryUtil.
+     * @param query - String.  The VQL query string.
+     * @param rows - long.  The number of rows returned.
+     * @param millis - long.  The elapsed time, in milliseconds.
+     */
+    public static void record(String query, long rows, long millis) {
+      QueryMetrics metrics = RequestContext.get().getValue(ContextName, QueryMetrics.class);
+      if (metrics == null || metrics.components.size() == 0) {
+        return;
+      }
+      String frame = metrics.currentFrame();
+      String shapeKey = frame + SEPARATOR + normalize(query);
+
+      add(metrics.queryCounts, frame, 1);
+      add(metrics.rowCounts, frame, rows);
+      add(metrics.elapsedMillis, frame, millis);
+      add(metrics.shapeCounts, shapeKey, 1);
+      add(metrics.shapeMillis, shapeKey, millis);
+      Long maxMillis = metrics.shapeMaxMillis.get(shapeKey);
+      if (maxMillis == null || millis > maxMillis) {
+        metrics.shapeMaxMillis.put(shapeKey, millis);
+      }
+    }
+
+    /*
+     * Return a summary of the queries executed in a frame, e.g.:
+     *
+     *    Query metrics for GatherGlobalCodes: 4 queries, 212 rows, 85 ms
+     *      60 ms, 2 queries (max 35 ms): select country__c from global_code_sku_country__c where ... contains (?)
+     *      ...
+     */
+    private String getSummary(String frame, String component) {
+
+      StringBuilder summary = new StringBuilder("Query metrics for ")
+        .append(component).append(": ")
+        .append(valueOf(this.queryCounts, frame)).append(" queries, ")
+        .append(valueOf(this.rowCounts, frame)).append(" rows, ")
+        .append(valueOf(this.elapsedMillis, frame)).append(" ms");
+
+      String prefix = frame + SEPARATOR;
+      List<String> shapeKeys = VaultCollections.newList();
+      for (String shapeKey : this.shapeMillis.keySet()) {
+        if (shapeKey.startsWith(prefix)) {
+          shapeKeys.add(shapeKey);
+        }
+      }
+      shapeKeys.sort((key1, key2) -> Long.compare(this.shapeMillis.get(key2), this.shapeMillis.get(key1)));
+
+      for (int i = 0; i < shapeKeys.size() && i < TOP_N; i++) {
+        String shapeKey = shapeKeys.get(i);
+        summary
+          .append("\n  ").append(this.shapeMillis.get(shapeKey)).append(" ms, ")
+          .append(this.shapeCounts.get(shapeKey)).append(" queries (max ")
+          .append(this.shapeMaxMillis.get(shapeKey)).append(" ms): ")
+          .append(shapeKey.substring(prefix.length()));
+      }
+
+      return summary.toString();
+    }
+
+    /**
+     * Return the "shape" of a VQL query: the query with each string or numeric literal replaced by '?',
+     * each list of literals (e.g. in a 'contains' filter) replaced by a single '?', and runs of
+     * whitespace replaced by a single space.
+     * @param query - String
+     * @return String - e.g. "select id from pmf__c where state__v contains (?) and brand__c = ?"
+     */
+    public static String normalize(String query) {
+
+      StringBuilder shape = new StringBuilder();
+      int i = 0;
+
+      while (i < query.length()) {
+        char c = query.charAt(i);
+        if (c == '\'') {
+          // skip to the closing quote, allowing for escaped characters
+          i++;
+          while (i < query.length() && query.charAt(i) != '\'') {
+            if (query.charAt(i) == '\\') {
+              i++;
+            }
+            i++;
+          }
+          i++;
+          shape.append('?');
+        } else if (Character.isDigit(c) && !isPartOfName(shape)) {
+          while (i < query.length() && (Character.isDigit(query.charAt(i)) || query.charAt(i) == '.')) {
+            i++;
+          }
+          shape.append('?');
+        } else if (Character.isWhitespace(c)) {
+          while (i < query.length() && Character.isWhitespace(query.charAt(i))) {
+            i++;
+          }
+          shape.append(' ');
+        } else {
+          shape.append(c);
+          i++;
+        }
+      }
+
+      String result = shape.toString().trim();
+      while (result.contains("?,?") || result.contains("?, ?")) {
+        result = result.replace("?, ?", "?").replace("?,?", "?");
+      }
+      return result;
+    }
+
+    // A digit that follows a letter, digit or underscore is part of a name (e.g. "name__v", "v2"), not a literal
+    private static boolean isPartOfName(StringBuilder shape) {
+      if (shape.length() == 0) {
+        return false;
+      }
+      char previous = shape.charAt(shape.length() - 1);
+      return Character.isLetterOrDigit(previous) || previous == '_';
+    }
+
+    // The innermost running component's frame: its position in the stack
+    private String currentFrame() {
+      return String.valueOf(this.components.size() - 1);
+    }
+
+    // Discard the counters for a frame
+    private void clear(String frame) {
+      this.queryCounts.remove(frame);
+      this.rowCounts.remove(frame);
+      this.elapsedMillis.remove(frame);
+      String prefix = frame + SEPARATOR;
+      List<String> shapeKeys = VaultCollections.newList();
+      for (String shapeKey : this.shapeCounts.keySet()) {
+        if (shapeKey.startsWith(prefix)) {
+          shapeKeys.add(shapeKey);
+        }
+      }
+      for (String shapeKey : shapeKeys) {
+        this.shapeCounts.remove(shapeKey);
+        this.shapeMillis.remove(shapeKey);
+        this.shapeMaxMillis.remove(shapeKey);
+      }
+    }
+
+    private void save() {
+      RequestContext.get().setValue(ContextName, this);
+    }
+
+    private static void add(Map<String, Long> counters, String key, long value) {
+      counters.put(key, valueOf(counters, key) + value);
+    }
+
+    private static long valueOf(Map<String, Long> counters, String key) {
+      Long value = counters.get(key);
+      return value == null ? 0 : value;
+    }
+}
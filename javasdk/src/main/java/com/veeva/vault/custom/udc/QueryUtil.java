@@ -3,8 +3,16 @@ package com.veeva.vault.custom.udc;
 import com.veeva.vault.sdk.api.core.RollbackException;
 import com.veeva.vault.sdk.api.core.ServiceLocator;
 import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.VaultCollections;
 import com.veeva.vault.sdk.api.query.*;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
 /*
 
   This class wraps QueryService calls in a way that makes it simple to handle VQL Queries based on the new interfaces 
@@ -13,8 +21,15 @@ import com.veeva.vault.sdk.api.query.*;
   Static methods in this class:
 
   query - Execute a query, and return the resulting QueryExecutionResponse object.
+  queryLegacy - Execute a query using the pre-22R1 interface, and return the resulting QueryResponse object.
   queryOne - Return a single QueryExecutionResult, or null if the query returns no result.
+  queryMemoized - Return the results of a query, reusing the results of the same query earlier in the request.
+  queryOneMemoized - As queryOne, reusing the result of the same query earlier in the request.
   queryCount - Return a long integer containing the count of rows that would be returned by the query.
+  queryPaged - Return an Iterator over the results of a query, fetching one page of results at a time as the
+     Iterator is consumed.  Optionally, map each result to a typed row.
+
+  All queries executed through this class are recorded in QueryMetrics.
 
  */
 
@@ -35,6 +50,8 @@ public class QueryUtil {
       QueryExecutionRequest qeRequest = queryService.newQueryExecutionRequestBuilder()
         .withQueryString(query)
         .build();
+      Instant start = Instant.now();
+
       queryService.query(qeRequest)
         .onSuccess(response -> {
           queryResponse[0] = response;
@@ -44,9 +61,29 @@ public class QueryUtil {
         })
         .execute();
 
+      QueryMetrics.record(query, queryResponse[0].getResultCount(), elapsedMillis(start));
+
       return queryResponse[0];
     }
 
+    /**
+     * Execute a query using the pre-22R1 QueryService interface, and return the resulting QueryResponse object.
+     * Use this instead of calling QueryService.query(String) directly, so that the query is included in
+     * QueryMetrics.
+     * @param query -- String.  The vql query string.
+     * @return  -- and instance of QueryResponse
+     */
+    public static QueryResponse queryLegacy(String query) {
+
+      QueryService queryService = ServiceLocator.locate(QueryService.class);
+
+      Instant start = Instant.now();
+      QueryResponse queryResponse = queryService.query(query);
+      QueryMetrics.record(query, queryResponse.getResultCount(), elapsedMillis(start));
+
+      return queryResponse;
+    }
+
     /**
      * queryOne.  Return a single QueryExecutionResult, or null if the query returns no result.
      * @param query
@@ -61,6 +98,40 @@ public class QueryUtil {
       return queryExecutionResult;
     }
 
+    /**
+     * queryMemoized.  Return the results of a query as a List, executing the query only if the same query
+     * (ignoring differences in whitespace) has not already been executed through this method in the current
+     * request.  See QueryMemo.  The List must not be modified.
+     * @param query -- String.  The vql query string.
+     * @return List<QueryExecutionResult>
+     */
+    public static List<QueryExecutionResult> queryMemoized(String query) {
+
+      QueryMemo memo = QueryMemo.get();
+      List<QueryExecutionResult> results = memo.getResults(query);
+
+      if (results == null) {
+        results = VaultCollections.newList();
+        Iterator<QueryExecutionResult> iter = QueryUtil.query(query).streamResults().iterator();
+        while (iter.hasNext()) {
+          results.add(iter.next());
+        }
+        memo.putResults(query, results);
+      }
+
+      return results;
+    }
+
+    /**
+     * queryOneMemoized.  As queryOne, but using queryMemoized.
+     * @param query
+     * @return QueryExecutionResult, or null if the query returns no result.
+     */
+    public static QueryExecutionResult queryOneMemoized(String query) {
+      List<QueryExecutionResult> results = queryMemoized(query);
+      return results.size() > 0 ? results.get(0) : null;
+    }
+
     /**
      * queryCount.  Return a long integer containing the count of rows that would be
      * returned by the query.
@@ -77,6 +148,8 @@ public class QueryUtil {
 
       long count[] = {0};
 
+      Instant start = Instant.now();
+
       queryService.count(queryCountRequest)
         .onSuccess(queryCountResponse -> {
           count[0] = queryCountResponse.getTotalCount();
@@ -86,7 +159,83 @@ public class QueryUtil {
         })
         .execute();
 
+      QueryMetrics.record(query, 0, elapsedMillis(start));
+
       return count[0];
     }
 
+    /**
+     * queryPaged.  Return an Iterator over the results of a query, executing the query one page at a time
+     * (using VQL PAGESIZE and PAGEOFFSET) as the Iterator is consumed.  Only the current page is held in memory,
+     * and no further pages are fetched once the consumer stops reading.
+     *
+     * The query should include an ORDER BY clause, so that the pages are consistent, and must not include
+     * PAGESIZE, PAGEOFFSET, MAXROWS or SKIP.
+     * @param query - String.  The vql query string.
+     * @param pageSize - int.  The number of results per page.
+     * @return Iterator<QueryExecutionResult>
+     */
+    public static Iterator<QueryExecutionResult> queryPaged(String query, int pageSize) {
+      return queryPaged(query, pageSize, result -> result);
+    }
+
+    /**
+     * queryPaged.  As queryPaged(String, int), but map each result to a typed row as it is read, so that
+     * the query results themselves are not retained.
+     * @param query - String.  The vql query string.
+     * @param pageSize - int.  The number of results per page.
+     * @param mapper - Function<QueryExecutionResult, T>.  Converts a result into a row.
+     * @return Iterator<T>
+     */
+    public static <T> Iterator<T> queryPaged(String query, int pageSize, Function<QueryExecutionResult, T> mapper) {
+      return new PagedIterator<T>(query, pageSize, mapper);
+    }
+
+    private static long elapsedMillis(Instant start) {
+      return Duration.between(start, Instant.now()).toMillis();
+    }
+
+    // Iterates over the results of a query, fetching the next page when the current page is exhausted.
+    // A page with fewer than pageSize results is the last page.
+    private static class PagedIterator<T> implements Iterator<T> {
+
+      private String query;
+      private int pageSize;
+      private Function<QueryExecutionResult, T> mapper;
+      private int pageOffset;
+      private int pageRowCount;
+      private Iterator<QueryExecutionResult> page;
+
+      PagedIterator(String query, int pageSize, Function<QueryExecutionResult, T> mapper) {
+        this.query = query;
+        this.pageSize = pageSize;
+        this.mapper = mapper;
+        this.pageOffset = 0;
+        this.pageRowCount = 0;
+        this.page = null;
+      }
+
+      public boolean hasNext() {
+        while (this.page == null || !this.page.hasNext()) {
+          if (this.page != null && this.pageRowCount < this.pageSize) {
+            return false;  // the current page was the last page
+          }
+          this.page = QueryUtil.query(
+            this.query + " pagesize " + this.pageSize + " pageoffset " + this.pageOffset
+          ).streamResults().iterator();
+          this.pageOffset += this.pageSize;
+          this.pageRowCount = 0;
+        }
+        return true;
+      }
+
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        this.pageRowCount++;
+        return this.mapper.apply(this.page.next());
+      }
+    }
+
 }
\ No newline at end of file
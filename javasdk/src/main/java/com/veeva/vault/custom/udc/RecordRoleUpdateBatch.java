@@ -0,0 +1,102 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.RollbackException;
+import com.veeva.vault.sdk.api.core.ServiceLocator;
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.role.RecordRoleService;
+import com.veeva.vault.sdk.api.role.RecordRoleUpdate;
+
+import java.util.List;
+
+/**
+ * Accumulates RecordRoleUpdate's across many records, and writes them with as few calls to
+ * RecordRoleService.batchUpdateRecordRoles as possible.
+ *
+ * Create one instance per trigger execution or job task, add updates to it as they are determined,
+ * and call execute() once at the end.  Updates are written in chunks of BATCH_SIZE; a chunk is also
+ * written as soon as it is full, to limit the number of pending updates held in memory.
+ *
+ * Errors from all chunks are collected, and if there are any, a single RollbackException is thrown
+ * when execute() is called.
+ *
+ * Usage:
+ *
+ *    RecordRoleUpdateBatch roleUpdates = new RecordRoleUpdateBatch();
+ *    PMF.updateOwnerRole(pmfRecord, roleUpdates);
+ *    ...
+ *    roleUpdates.execute();
+ */
+
+@UserDefinedClassInfo
+public class RecordRoleUpdateBatch {
+
+    // maximum number of records per batchUpdateRecordRoles/getRecordRoles call
+    public static final int BATCH_SIZE = 500;
+
+    private List<RecordRoleUpdate> pendingUpdates;
+    private List<String> errorMessages;
+    private int updateCount;
+
+    public RecordRoleUpdateBatch() {
+      this.pendingUpdates = VaultCollections.newList();
+      this.errorMessages = VaultCollections.newList();
+      this.updateCount = 0;
+    }
+
+    /**
+     * Add a RecordRoleUpdate to the batch.
+     * @param recordRoleUpdate - RecordRoleUpdate
+     */
+    public void add(RecordRoleUpdate recordRoleUpdate) {
+      this.pendingUpdates.add(recordRoleUpdate);
+      if (this.pendingUpdates.size() >= BATCH_SIZE) {
+        flush();
+      }
+    }
+
+    /**
+     * Return the number of updates added to the batch so far.
+     * @return int
+     */
+    public int getUpdateCount() {
+      return this.updateCount + this.pendingUpdates.size();
+    }
+
+    /**
+     * Write any pending updates.  If any update, in this or an earlier chunk, failed, throw a
+     * RollbackException reporting the number of failures and the first error message.
+     */
+    public void execute() {
+
+      flush();
+
+      if (this.errorMessages.size() > 0) {
+        throw new RollbackException(
+          ErrorType.OPERATION_FAILED,
+          this.errorMessages.size() + " role update(s) failed. First error: " + this.errorMessages.get(0)
+        );
+      }
+    }
+
+    // Write the pending updates, collecting any errors.
+    private void flush() {
+
+      if (this.pendingUpdates.size() == 0) {
+        return;
+      }
+
+      RecordRoleService recordRoleService = ServiceLocator.locate(RecordRoleService.class);
+
+      recordRoleService.batchUpdateRecordRoles(this.pendingUpdates)
+        .onErrors(batchOperationErrors -> {
+          batchOperationErrors.forEach(error -> {
+            this.errorMessages.add(error.getError().getMessage());
+          });
+        })
+        .execute();
+
+      this.updateCount += this.pendingUpdates.size();
+      this.pendingUpdates = VaultCollections.newList();
+    }
+}
@@ -14,7 +14,6 @@ import com.veeva.vault.sdk.api.group.Group;
 import com.veeva.vault.sdk.api.group.GroupService;
 import com.veeva.vault.sdk.api.query.QueryResponse;
 import com.veeva.vault.sdk.api.query.QueryResult;
-import com.veeva.vault.sdk.api.query.QueryService;
 import com.veeva.vault.sdk.api.role.DocumentRoleService;
 import com.veeva.vault.sdk.api.role.DocumentRoleUpdate;
 
@@ -115,14 +114,13 @@ public class RedlineArtwork {
 
     private static String findExistingRedlineDocument(String artworkDocVersionId, String pmfId) {
 
-        QueryService queryService = ServiceLocator.locate(QueryService.class);
         String query =
           "select version_id from documents " +
             "where toName(type__v) = 'pmf_redline_artwork__c' " +
             "and artwork_version_id__c = '" + artworkDocVersionId + "' " +
             "and pmf__c = '" + pmfId + "'";
 
-        QueryResponse qResponse = queryService.query(query);
+        QueryResponse qResponse = QueryUtil.queryLegacy(query);
 
         if (qResponse.getResultCount() == 0) {
             return null;
@@ -138,10 +136,9 @@ public class RedlineArtwork {
           "pmf_local_connection__c", ConnectionUser.SDK_CURRENT_USER   //CONNECTION_AUTHORIZED_USER
         );
         DocumentService documentService = ServiceLocator.locate(DocumentService.class);
-        QueryService queryService = ServiceLocator.locate(QueryService.class);
 
         String query = "select name__v from documents where version_id = '" + artworkDocVersionId + "'";
-        QueryResult qr = queryService.query(query).streamResults().iterator().next();
+        QueryResult qr = QueryUtil.queryLegacy(query).streamResults().iterator().next();
         String artworkName = qr.getValue("name__v", ValueType.STRING);
 
         String redlineArtworkName = "Redline: " + artworkName;
@@ -0,0 +1,113 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.RequestContext;
+import com.veeva.vault.sdk.api.core.RequestContextValue;
+import com.veeva.vault.sdk.api.core.RollbackException;
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.ValueType;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
+
+import java.util.Map;
+
+/**
+ * Request-scoped cache for reference data lookups (role id's, object type names, record id's by key, etc.).
+ *
+ * The cache is stored in the RequestContext, so each distinct lookup hits Vault at most once per
+ * request/transaction, regardless of how many triggers, actions or job items ask for it.  A lookup that
+ * returns no result throws a RollbackException, since callers depend on the value (e.g. a role id used to
+ * update record roles); it is not cached.
+ *
+ * Usage:
+ *
+ *    String roleId = ReferenceDataCache.get().lookup(
+ *      "roleId:regulatory__c",
+ *      "select id from application_role__v where api_name__v = 'regulatory__c'",
+ *      "id"
+ *    );
+ */
+
+@UserDefinedClassInfo(name = "pmf_referencedatacache__c")
+public class ReferenceDataCache implements RequestContextValue {
+
+    public static final String ContextName = "pmfReferenceDataCache";
+
+    private Map<String, String> values;
+    private int hits;
+    private int misses;
+
+    public ReferenceDataCache() {
+      //parameter-less constructor required by the system
+      this.values = VaultCollections.newMap();
+      this.hits = 0;
+      this.misses = 0;
+    }
+
+    /**
+     * Return the cache for the current request, creating it if it does not yet exist.
+     * @return ReferenceDataCache
+     */
+    public static ReferenceDataCache get() {
+      ReferenceDataCache cache = RequestContext.get().getValue(ContextName, ReferenceDataCache.class);
+      if (cache == null) {
+        cache = new ReferenceDataCache();
+        RequestContext.get().setValue(ContextName, cache);
+      }
+      return cache;
+    }
+
+    /**
+     * Return the cached value for the key.  On a miss, execute the query, cache the value of the
+     * indicated field from the first result, and return it.  Throw a RollbackException if the query
+     * returns no result.
+     * @param key - String. Unique key for the lookup, e.g. "roleId:regulatory__c"
+     * @param query - String. VQL query to execute on a cache miss
+     * @param fieldName - String. Name of the field to return from the first query result
+     * @return String - the value
+     */
+    public String lookup(String key, String query, String fieldName) {
+      if (this.values.containsKey(key)) {
+        this.hits++;
+        RequestContext.get().setValue(ContextName, this);  // persist the counter
+        return this.values.get(key);
+      }
+      this.misses++;
+      QueryExecutionResult queryResult = QueryUtil.queryOne(query);
+      if (queryResult == null) {
+        throw new RollbackException(
+          ErrorType.OPERATION_FAILED, "Reference data lookup '" + key + "' found no record. Query: " + query
+        );
+      }
+      String value = queryResult.getValue(fieldName, ValueType.STRING);
+      put(key, value);
+      return value;
+    }
+
+    /**
+     * Add a value to the cache.  Useful when a value is already known from another query.
+     * @param key - String
+     * @param value - String
+     */
+    public void put(String key, String value) {
+      this.values.put(key, value);
+      RequestContext.get().setValue(ContextName, this);
+    }
+
+    public int getHits() {
+      return this.hits;
+    }
+
+    public int getMisses() {
+      return this.misses;
+    }
+
+    /**
+     * Return a one-line summary of the cache's hit/miss counters, suitable for logging.
+     * @return String
+     */
+    public String getStatistics() {
+      return "Reference data cache: " + this.values.size() + " entries, " +
+        this.hits + " hits, " + this.misses + " misses";
+    }
+
+}
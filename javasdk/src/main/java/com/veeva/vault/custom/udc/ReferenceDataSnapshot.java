@@ -0,0 +1,458 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.*;
+import com.veeva.vault.sdk.api.data.Record;
+import com.veeva.vault.sdk.api.data.RecordService;
+import com.veeva.vault.sdk.api.json.JsonArray;
+import com.veeva.vault.sdk.api.json.JsonObject;
+import com.veeva.vault.sdk.api.json.JsonService;
+import com.veeva.vault.sdk.api.json.JsonValueType;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of the PMF reference data that almost never changes:
+ *
+ *   - Countries (country__v), including each Country's Region
+ *   - the Application Roles (application_role__v) used by the PMF code (see PMF_ROLES)
+ *   - PMF Object Types (object_type__v)
+ *   - Document Type Groups (doc_type_group__v)
+ *
+ * The snapshot is serialized as compact JSON into field "Reference Data" (reference_data__c) of the "pmf"
+ * record in object "VPROC Parameter Set" (vproc_parameter_set__c), so loading it costs a single query.
+ * Once loaded, the snapshot is kept in the RequestContext for the rest of the request.
+ *
+ * The JSON carries the version number it was built from.  Field "Reference Data Version"
+ * (reference_data_version__c) holds the current version, and is incremented by invalidate() (e.g. from the
+ * Country trigger).  When the two differ, or the snapshot is missing, the snapshot is rebuilt from the
+ * source objects and saved back to the parameter record.  Only the JSON is saved, never the version field, so
+ * an invalidation made while the snapshot is being rebuilt is not overwritten.  The save is skipped if the JSON would not fit in
+ * the field (MAX_SNAPSHOT_LENGTH), and a failed save is only logged; in both cases the rebuilt snapshot is
+ * still used for the current request.  Invalidation failures are also only logged, so that a problem with
+ * the parameter record never fails the Country transaction.
+ *
+ * A snapshot that cannot be parsed is treated as stale.
+ *
+ * Lookups that are not found in the snapshot return null; callers such as Util fall back to a direct
+ * (cached) query in that case.
+ */
+
+@UserDefinedClassInfo(name = "pmf_referencedatasnapshot__c")
+public class ReferenceDataSnapshot implements RequestContextValue {
+
+    public static final String ContextName = "pmfReferenceDataSnapshot";
+
+    private static final String PARAMETER_OBJECT = "vproc_parameter_set__c";
+    private static final String SNAPSHOT_FIELD = "reference_data__c";
+    private static final String VERSION_FIELD = "reference_data_version__c";
+    private static final int MAX_SNAPSHOT_LENGTH = 32000;  // maximum length of the Long Text field
+
+    // The Application Roles looked up by the PMF code.  Other roles are looked up directly (see Util.getRoleId)
+    private static final List<String> PMF_ROLES = VaultCollections.asList(
+      "regulatory__c", "pmf_reviewer__c", "pmf_plant_reviewer__c"
+    );
+
+    private Map<String, String> countryRegions;          // key: country id; value: region id
+    private Map<String, String> countryNames;            // key: country id; value: country name
+    private Map<String, String> countryAbbreviations;    // key: country id; value: abbreviation
+    private Map<String, String> countryIdsByAbbreviation; // key: abbreviation; value: country id
+    private Map<String, List<String>> regionCountries;   // key: region id; value: list of country id's
+    private Map<String, String> roleIdsByName;           // key: application role api name; value: id
+    private Map<String, String> roleNamesById;           // key: application role id; value: api name
+    private Map<String, String> objectTypeNamesById;     // key: object type id; value: api name
+    private Map<String, String> docTypeGroupIdsByName;   // key: document type group name; value: id
+
+    public ReferenceDataSnapshot() {
+      //parameter-less constructor required by the system
+      this.countryRegions = VaultCollections.newMap();
+      this.countryNames = VaultCollections.newMap();
+      this.countryAbbreviations = VaultCollections.newMap();
+      this.countryIdsByAbbreviation = VaultCollections.newMap();
+      this.regionCountries = VaultCollections.newMap();
+      this.roleIdsByName = VaultCollections.newMap();
+      this.roleNamesById = VaultCollections.newMap();
+      this.objectTypeNamesById = VaultCollections.newMap();
+      this.docTypeGroupIdsByName = VaultCollections.newMap();
+    }
+
+    /**
+     * Return the snapshot for the current request, loading (and if necessary rebuilding) it on first use.
+     * @return ReferenceDataSnapshot
+     */
+    public static ReferenceDataSnapshot get() {
+      ReferenceDataSnapshot snapshot = RequestContext.get().getValue(ContextName, ReferenceDataSnapshot.class);
+      if (snapshot == null) {
+        snapshot = load();
+        RequestContext.get().setValue(ContextName, snapshot);
+      }
+      return snapshot;
+    }
+
+    /**
+     * Mark the persisted snapshot as stale by incrementing the Reference Data Version.  The snapshot
+     * is rebuilt by the next request that needs it.
+     */
+    public static void invalidate() {
+
+      RecordService recordService = ServiceLocator.locate(RecordService.class);
+      LogService logService = ServiceLocator.locate(LogService.class);
+
+      QueryExecutionResult queryResult = QueryUtil.queryOne(
+        "select id, " + VERSION_FIELD + " from " + PARAMETER_OBJECT + " where name__v = 'pmf'"
+      );
+      if (queryResult == null) {
+        return;
+      }
+
+      BigDecimal version = queryResult.getValue(VERSION_FIELD, ValueType.NUMBER);
+      version = version == null ? BigDecimal.ONE : version.add(BigDecimal.ONE);
+
+      Record record = recordService.newRecordWithId(PARAMETER_OBJECT, queryResult.getValue("id", ValueType.STRING));
+      record.setValue(VERSION_FIELD, version);
+
+      recordService.batchSaveRecords(VaultCollections.asList(record))
+        .onErrors(batchOperationErrors -> {
+          batchOperationErrors.stream().findFirst().ifPresent(error -> {
+            logService.error("Unable to invalidate the PMF reference data snapshot: " + error.getError().getMessage());
+          });
+        })
+        .execute();
+    }
+
+    public String getRegion(String countryId) {
+      return this.countryRegions.get(countryId);
+    }
+
+    public String getCountryName(String countryId) {
+      return this.countryNames.get(countryId);
+    }
+
+    public String getCountryIdByAbbreviation(String abbreviation) {
+      return this.countryIdsByAbbreviation.get(abbreviation);
+    }
+
+    /**
+     * Return the list of Country record ID's in the Region, or null if the Region has no Countries.
+     * @param regionId - String
+     * @return List<String>
+     */
+    public List<String> getCountriesInRegion(String regionId) {
+      return this.regionCountries.get(regionId);
+    }
+
+    public boolean isCountry(String countryId) {
+      return this.countryRegions.containsKey(countryId);
+    }
+
+    public String getRoleId(String roleName) {
+      return this.roleIdsByName.get(roleName);
+    }
+
+    public String getRoleName(String roleId) {
+      return this.roleNamesById.get(roleId);
+    }
+
+    public String getObjectTypeName(String objectTypeId) {
+      return this.objectTypeNamesById.get(objectTypeId);
+    }
+
+    public String getDocTypeGroupId(String docTypeGroupName) {
+      return this.docTypeGroupIdsByName.get(docTypeGroupName);
+    }
+
+    // Load the persisted snapshot with a single query, or rebuild it if it is missing or stale.
+    private static ReferenceDataSnapshot load() {
+
+      QueryExecutionResult queryResult = QueryUtil.queryOne(
+        "select id, " + VERSION_FIELD + ", LongText(" + SNAPSHOT_FIELD + ")" +
+        "  from " + PARAMETER_OBJECT + " where name__v = 'pmf'"
+      );
+
+      if (queryResult == null) {
+        return rebuild();  // no parameter record to persist to; the snapshot lives for this request only
+      }
+
+      String parameterRecordId = queryResult.getValue("id", ValueType.STRING);
+      BigDecimal version = queryResult.getValue(VERSION_FIELD, ValueType.NUMBER);
+      String json = queryResult.getValue(SNAPSHOT_FIELD, ValueType.STRING);
+
+      if (version == null) {
+        version = BigDecimal.ZERO;
+      }
+
+      if (json != null && json.length() > 0) {
+        ReferenceDataSnapshot snapshot = parse(json, version);
+        if (snapshot != null) {
+          return snapshot;
+        }
+      }
+
+      ReferenceDataSnapshot snapshot = rebuild();
+      snapshot.save(parameterRecordId, version);
+      return snapshot;
+    }
+
+    // Rebuild the snapshot from the source objects.
+    private static ReferenceDataSnapshot rebuild() {
+
+      ReferenceDataSnapshot snapshot = new ReferenceDataSnapshot();
+      Iterator<QueryExecutionResult> iter;
+
+      iter = QueryUtil.query(
+        "select id, name__v, abbreviation__c, region__c from country__v"
+      ).streamResults().iterator();
+      while (iter.hasNext()) {
+        QueryExecutionResult result = iter.next();
+        snapshot.addCountry(
+          result.getValue("id", ValueType.STRING),
+          result.getValue("name__v", ValueType.STRING),
+          result.getValue("abbreviation__c", ValueType.STRING),
+          result.getValue("region__c", ValueType.STRING)
+        );
+      }
+
+      iter = QueryUtil.query(
+        "select id, api_name__v from application_role__v where api_name__v contains " + Util.vqlContains(PMF_ROLES)
+      ).streamResults().iterator();
+      while (iter.hasNext()) {
+        QueryExecutionResult result = iter.next();
+        snapshot.addRole(result.getValue("id", ValueType.STRING), result.getValue("api_name__v", ValueType.STRING));
+      }
+
+      iter = QueryUtil.query(
+        "select id, api_name__v from object_type__v where object_name__v = '" + PMF.ObjectName + "'"
+      ).streamResults().iterator();
+      while (iter.hasNext()) {
+        QueryExecutionResult result = iter.next();
+        snapshot.objectTypeNamesById.put(
+          result.getValue("id", ValueType.STRING), result.getValue("api_name__v", ValueType.STRING)
+        );
+      }
+
+      iter = QueryUtil.query("select id, name__v from doc_type_group__v").streamResults().iterator();
+      while (iter.hasNext()) {
+        QueryExecutionResult result = iter.next();
+        snapshot.docTypeGroupIdsByName.put(
+          result.getValue("name__v", ValueType.STRING), result.getValue("id", ValueType.STRING)
+        );
+      }
+
+      return snapshot;
+    }
+
+    // Return the persisted snapshot, or null if it is stale or cannot be parsed.
+    private static ReferenceDataSnapshot parse(String json, BigDecimal version) {
+      try {
+        JsonService jsonService = ServiceLocator.locate(JsonService.class);
+        JsonObject jsonObject = jsonService.readJson(json).getJsonObject();
+        BigDecimal snapshotVersion = jsonObject.getValue("version", JsonValueType.NUMBER);
+        if (snapshotVersion != null && snapshotVersion.compareTo(version) == 0) {
+          return fromJson(jsonObject);
+        }
+      } catch (RuntimeException e) {
+        ServiceLocator.locate(LogService.class).error(
+          "Unable to read the PMF reference data snapshot; rebuilding it: " + e.getMessage()
+        );
+      }
+      return null;
+    }
+
+    // Persist the snapshot to the parameter record.  Failure to persist is not fatal: the snapshot
+    // is simply rebuilt again by the next request.  A snapshot too large for the field is not saved.
+    private void save(String parameterRecordId, BigDecimal version) {
+
+      RecordService recordService = ServiceLocator.locate(RecordService.class);
+      LogService logService = ServiceLocator.locate(LogService.class);
+
+      String json = toJson(version);
+      if (json.length() > MAX_SNAPSHOT_LENGTH) {
+        logService.warn(
+          "The PMF reference data snapshot is too large to save (" + json.length() + " characters); not saved"
+        );
+        return;
+      }
+
+      Record record = recordService.newRecordWithId(PARAMETER_OBJECT, parameterRecordId);
+      record.setValue(SNAPSHOT_FIELD, json);
+
+      recordService.batchSaveRecords(VaultCollections.asList(record))
+        .onErrors(batchOperationErrors -> {
+          batchOperationErrors.stream().findFirst().ifPresent(error -> {
+            logService.error("Unable to save the PMF reference data snapshot: " + error.getError().getMessage());
+          });
+        })
+        .execute();
+    }
+
+    private void addCountry(String id, String name, String abbreviation, String regionId) {
+      this.countryRegions.put(id, regionId);
+      this.countryNames.put(id, name);
+      if (abbreviation != null) {
+        this.countryAbbreviations.put(id, abbreviation);
+        this.countryIdsByAbbreviation.put(abbreviation, id);
+      }
+      if (regionId != null) {
+        List<String> countries = this.regionCountries.get(regionId);
+        if (countries == null) {
+          countries = VaultCollections.newList();
+          this.regionCountries.put(regionId, countries);
+        }
+        countries.add(id);
+      }
+    }
+
+    private void addRole(String id, String apiName) {
+      this.roleIdsByName.put(apiName, id);
+      this.roleNamesById.put(id, apiName);
+    }
+
+    /*
+      Serialize the snapshot.  Each entry is written as an array rather than an object to keep the JSON
+      compact, e.g.:
+
+        {"version":3,
+         "countries":[["<id>","<name>","<abbreviation>","<region id>"],...],
+         "roles":[["<id>","<api name>"],...],
+         "objectTypes":[["<id>","<api name>"],...],
+         "docTypeGroups":[["<id>","<name>"],...]}
+
+      Null values are written as empty strings.  Values are escaped per RFC 8259 (see appendJsonString).
+     */
+    private String toJson(BigDecimal version) {
+
+      StringBuilder json = new StringBuilder();
+
+      json.append("{\"version\":").append(version.toPlainString());
+
+      json.append(",\"countries\":[");
+      Iterator<String> iter = this.countryNames.keySet().iterator();
+      while (iter.hasNext()) {
+        String countryId = iter.next();
+        appendJsonArray(json,
+          countryId,
+          this.countryNames.get(countryId),
+          this.countryAbbreviations.get(countryId),
+          this.countryRegions.get(countryId)
+        );
+        if (iter.hasNext()) {
+          json.append(",");
+        }
+      }
+      json.append("]");
+
+      json.append(",\"roles\":[");
+      iter = this.roleNamesById.keySet().iterator();
+      while (iter.hasNext()) {
+        String roleId = iter.next();
+        appendJsonArray(json, roleId, this.roleNamesById.get(roleId));
+        if (iter.hasNext()) {
+          json.append(",");
+        }
+      }
+      json.append("]");
+
+      json.append(",\"objectTypes\":[");
+      iter = this.objectTypeNamesById.keySet().iterator();
+      while (iter.hasNext()) {
+        String objectTypeId = iter.next();
+        appendJsonArray(json, objectTypeId, this.objectTypeNamesById.get(objectTypeId));
+        if (iter.hasNext()) {
+          json.append(",");
+        }
+      }
+      json.append("]");
+
+      json.append(",\"docTypeGroups\":[");
+      iter = this.docTypeGroupIdsByName.keySet().iterator();
+      while (iter.hasNext()) {
+        String docTypeGroupName = iter.next();
+        appendJsonArray(json, this.docTypeGroupIdsByName.get(docTypeGroupName), docTypeGroupName);
+        if (iter.hasNext()) {
+          json.append(",");
+        }
+      }
+      json.append("]");
+
+      json.append("}");
+
+      return json.toString();
+    }
+
+    private static ReferenceDataSnapshot fromJson(JsonObject jsonObject) {
+
+      ReferenceDataSnapshot snapshot = new ReferenceDataSnapshot();
+      JsonArray array;
+
+      array = jsonObject.getValue("countries", JsonValueType.ARRAY);
+      for (int i = 0; i < array.getSize(); i++) {
+        JsonArray country = array.getValue(i, JsonValueType.ARRAY);
+        snapshot.addCountry(
+          jsonString(country, 0), jsonString(country, 1), jsonString(country, 2), jsonString(country, 3)
+        );
+      }
+
+      array = jsonObject.getValue("roles", JsonValueType.ARRAY);
+      for (int i = 0; i < array.getSize(); i++) {
+        JsonArray role = array.getValue(i, JsonValueType.ARRAY);
+        snapshot.addRole(jsonString(role, 0), jsonString(role, 1));
+      }
+
+      array = jsonObject.getValue("objectTypes", JsonValueType.ARRAY);
+      for (int i = 0; i < array.getSize(); i++) {
+        JsonArray objectType = array.getValue(i, JsonValueType.ARRAY);
+        snapshot.objectTypeNamesById.put(jsonString(objectType, 0), jsonString(objectType, 1));
+      }
+
+      array = jsonObject.getValue("docTypeGroups", JsonValueType.ARRAY);
+      for (int i = 0; i < array.getSize(); i++) {
+        JsonArray docTypeGroup = array.getValue(i, JsonValueType.ARRAY);
+        snapshot.docTypeGroupIdsByName.put(jsonString(docTypeGroup, 1), jsonString(docTypeGroup, 0));
+      }
+
+      return snapshot;
+    }
+
+    private static void appendJsonArray(StringBuilder json, String... values) {
+      json.append("[");
+      for (int i = 0; i < values.length; i++) {
+        if (i > 0) {
+          json.append(",");
+        }
+        appendJsonString(json, values[i]);
+      }
+      json.append("]");
+    }
+
+    // Append a quoted JSON string, escaping quotes, backslashes and control characters.
+    private static void appendJsonString(StringBuilder json, String value) {
+      json.append("\"");
+      if (value != null) {
+        for (int i = 0; i < value.length(); i++) {
+          char c = value.charAt(i);
+          if (c == '"' || c == '\\') {
+            json.append('\\').append(c);
+          } else if (c < 0x20) {
+            String hex = Integer.toHexString(c);
+            json.append("\\u");
+            for (int pad = hex.length(); pad < 4; pad++) {
+              json.append('0');
+            }
+            json.append(hex);
+          } else {
+            json.append(c);
+          }
+        }
+      }
+      json.append("\"");
+    }
+
+    private static String jsonString(JsonArray array, int index) {
+      String value = array.getValue(index, JsonValueType.STRING);
+      return (value == null || value.length() == 0) ? null : value;
+    }
+
+}
@@ -0,0 +1,409 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.ValueType;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maintains a denormalized "rollup" display field on the PMF (pmf__c): a delimited list of a value taken from
+ * each of the PMF's child records, e.g. the names of the PMF's Global Codes in field global_codes__c.
+ *
+ * A rollup is configured with the child object, the child field that references the PMF, the child field that
+ * holds the value (and, for a reference field, the object and field holding the value to display), the PMF
+ * field, the delimiter, whether the values are sorted, and the maximum length of the PMF field.  The rollups
+ * used by this application are returned by the static methods globalCodes(), impactedCountries(),
+ * packagingNumbers() and artworkDocumentNumbers().
+ *
+ * The PMF field is normally updated incrementally from the child values added and removed (see add() and
+ * remove()): the stored value is split on the delimiter, changed, and joined again.  The PMF field is rebuilt
+ * from all of the child records only when it cannot be updated incrementally, i.e. when it is empty, was
+ * truncated, or does not contain a removed value, or when asked to (see rebuild()).
+ *
+ * New values are written through the PmfWriteBuffer, so several rollups on the same PMF are saved together.
+ *
+ * Usage:
+ *
+ *    RollupString globalCodes = RollupString.globalCodes();
+ *    globalCodes.add(pmfId, addedGlobalCodeId);
+ *    globalCodes.remove(pmfId, removedGlobalCodeId);
+ *    RollupString.update(globalCodes, impactedCountries);
+ */
+
+@UserDefinedClassInfo
+public class RollupString {
+
+    private static final String PARENT_OBJECT = "pmf__c";
+
+    // configuration
+    private String parentField;        // the PMF field, e.g. "global_codes__c"
+    private String childObject;        // e.g. "pmf_global_code__c"
+    private String parentReference;    // the child field referencing the PMF, e.g. "pmf__c"
+    private String childField;         // the child field holding the value, e.g. "global_code_sku__c"
+    private String lookupObject;       // if childField is a reference, the object it references, e.g. "global_code_sku__c"
+    private String lookupField;        // ...and the field on that object to display, e.g. "name__v"
+    private String delimiter;
+    private boolean sorted;
+    private int maxLength;
+
+    // key: PMF record id; value: child values (as held in childField) added to/removed from the PMF
+    private Map<String, List<String>> added;
+    private Map<String, List<String>> removed;
+
+    // PMF record id's whose field is to be rebuilt from all of the child records
+    private Set<String> rebuildIds;
+
+    public RollupString(
+      String parentField, String childObject, String parentReference, String childField,
+      String lookupObject, String lookupField, String delimiter, boolean sorted, int maxLength
+    ) {
+      this.parentField = parentField;
+      this.childObject = childObject;
+      this.parentReference = parentReference;
+      this.childField = childField;
+      this.lookupObject = lookupObject;
+      this.lookupField = lookupField;
+      this.delimiter = delimiter;
+      this.sorted = sorted;
+      this.maxLength = maxLength;
+      this.added = VaultCollections.newMap();
+      this.removed = VaultCollections.newMap();
+      this.rebuildIds = VaultCollections.newSet();
+    }
+
+    /**
+     * The names of the PMF's Global Codes, in field "Global Codes" (global_codes__c).
+     * @return RollupString
+     */
+    public static RollupString globalCodes() {
+      return new RollupString(
+        "global_codes__c", "pmf_global_code__c", "pmf__c", "global_code_sku__c",
+        "global_code_sku__c", "name__v", ", ", false, 5000
+      );
+    }
+
+    /**
+     * The names of the PMF's Impacted Countries, in field "Impacted Countries" (impacted_countries__c).
+     * @return RollupString
+     */
+    public static RollupString impactedCountries() {
+      return new RollupString(
+        "impacted_countries__c", "pmf_impacted_country__c", "pmf__c", "country__c",
+        "country__v", "name__v", ", ", false, 2000
+      );
+    }
+
+    /**
+     * The Packaging Numbers of the PMF's Artwork Documents, in field "Packaging Number(s)" (packaging_numbers__c).
+     * @return RollupString
+     */
+    public static RollupString packagingNumbers() {
+      return new RollupString(
+        "packaging_numbers__c", "pmf_artwork_document__c", "pmf__c", "packaging_number__c",
+        null, null, ", ", false, 1500
+      );
+    }
+
+    /**
+     * The Document Numbers of the PMF's Artwork Documents, in field "Artwork Document Number(s)"
+     * (artwork_document_numbers__c).
+     * @return RollupString
+     */
+    public static RollupString artworkDocumentNumbers() {
+      return new RollupString(
+        "artwork_document_numbers__c", "pmf_artwork_document__c", "pmf__c", "document_number__c",
+        null, null, ", ", false, 1500
+      );
+    }
+
+    /**
+     * Record a child value added to a PMF.  Null values are ignored.
+     * @param pmfRecordId - String
+     * @param childValue - String.  The value of the child field, e.g. a Global Code (SKU) record id
+     */
+    public void add(String pmfRecordId, String childValue) {
+      touch(pmfRecordId);
+      if (childValue != null) {
+        this.added.get(pmfRecordId).add(childValue);
+      }
+    }
+
+    /**
+     * Record a child value removed from a PMF.  Null values are ignored.
+     * @param pmfRecordId - String
+     * @param childValue - String.  The value of the child field, e.g. a Global Code (SKU) record id
+     */
+    public void remove(String pmfRecordId, String childValue) {
+      touch(pmfRecordId);
+      if (childValue != null) {
+        this.removed.get(pmfRecordId).add(childValue);
+      }
+    }
+
+    /**
+     * Rebuild the PMF's field from all of its child records, rather than incrementally.
+     * @param pmfRecordId - String
+     */
+    public void rebuild(String pmfRecordId) {
+      touch(pmfRecordId);
+      this.rebuildIds.add(pmfRecordId);
+    }
+
+    /**
+     * Update the PMF fields of one or more rollups, for all of the PMF's recorded in each rollup.  The current
+     * values of all of the fields are read with a single query, and the new values are saved together.
+     * @param rollups - RollupString...
+     */
+    public static void update(RollupString... rollups) {
+
+      Set<String> pmfRecordIds = VaultCollections.newSet();
+      List<String> parentFields = VaultCollections.newList();
+      parentFields.add("id");
+      for (RollupString rollup : rollups) {
+        pmfRecordIds.addAll(rollup.added.keySet());
+        parentFields.add(rollup.parentField);
+      }
+
+      if (pmfRecordIds.size() == 0) {
+        return;
+      }
+
+      // key: PMF record id; value: the PMF record's current values.  Not needed if all fields are to be rebuilt.
+      Map<String, QueryExecutionResult> currentValues = null;
+
+      boolean rebuildOnly = true;
+      for (RollupString rollup : rollups) {
+        rebuildOnly = rebuildOnly && rollup.rebuildIds.containsAll(rollup.added.keySet());
+      }
+
+      if (!rebuildOnly) {
+
+        currentValues = VaultCollections.newMap();
+
+        Iterator<QueryExecutionResult> iter = VqlQuery.select(parentFields.toArray(new String[0]))
+          .from(PARENT_OBJECT)
+          .whereIn("id", pmfRecordIds)
+          .execute();
+
+        while (iter.hasNext()) {
+          QueryExecutionResult queryResult = iter.next();
+          currentValues.put(queryResult.getValue("id", ValueType.STRING), queryResult);
+        }
+      }
+
+      PmfWriteBuffer.begin();
+      for (RollupString rollup : rollups) {
+        rollup.update(currentValues);
+      }
+      PmfWriteBuffer.end();
+    }
+
+    // Compute and write the new values of this rollup's PMF field.  currentValues is null if all of the
+    // rollup's PMF's are to be rebuilt.
+    private void update(Map<String, QueryExecutionResult> currentValues) {
+
+      Map<String, String> displayValues = getDisplayValues();
+
+      for (String pmfRecordId : this.added.keySet()) {
+
+        if (this.rebuildIds.contains(pmfRecordId)) {
+          continue;
+        }
+
+        QueryExecutionResult current = currentValues.get(pmfRecordId);
+        if (current == null) {
+          continue;  // the PMF has been deleted
+        }
+
+        List<String> values = updateIncrementally(
+          current.getValue(this.parentField, ValueType.STRING),
+          toDisplayValues(this.added.get(pmfRecordId), displayValues),
+          toDisplayValues(this.removed.get(pmfRecordId), displayValues)
+        );
+        if (values == null) {
+          this.rebuildIds.add(pmfRecordId);
+        } else {
+          PmfWriteBuffer.setValue(pmfRecordId, this.parentField, join(values));
+        }
+      }
+
+      if (this.rebuildIds.size() > 0) {
+        Map<String, String> rebuiltValues = getRebuiltValues(this.rebuildIds);
+        for (String pmfRecordId : this.rebuildIds) {
+          if (currentValues == null || currentValues.containsKey(pmfRecordId)) {
+            PmfWriteBuffer.setValue(pmfRecordId, this.parentField, rebuiltValues.get(pmfRecordId));
+          }
+        }
+      }
+    }
+
+    // Return the list of values after applying the additions and removals to the stored value, or null if the
+    // stored value cannot be updated incrementally.
+    private List<String> updateIncrementally(String storedValue, List<String> addedValues, List<String> removedValues) {
+
+      if (storedValue == null || storedValue.length() >= this.maxLength) {
+        return null;  // empty (the PMF may never have been populated) or truncated
+      }
+
+      List<String> values = split(storedValue);
+
+      for (String removedValue : removedValues) {
+        if (removedValue.contains(this.delimiter) || !values.remove(removedValue)) {
+          return null;  // cannot reliably locate the value in the stored value
+        }
+      }
+
+      for (String addedValue : addedValues) {
+        if (this.sorted && addedValue.contains(this.delimiter)) {
+          return null;  // cannot reliably sort the stored value
+        }
+        values.add(addedValue);
+      }
+
+      if (this.sorted) {
+        values.sort(String::compareTo);
+      }
+
+      return values;
+    }
+
+    // Return the values of the PMF's field rebuilt from all of their child records, keyed by PMF record id.
+    // PMF's without child records are not included.
+    private Map<String, String> getRebuiltValues(Collection<String> pmfRecordIds) {
+
+      String displayField = this.lookupObject == null
+        ? this.childField
+        : relationshipName(this.childField) + "." + this.lookupField;
+
+      Map<String, List<String>> values = VaultCollections.newMap();
+
+      Iterator<QueryExecutionResult> iter = VqlQuery.select(this.parentReference, displayField)
+        .from(this.childObject)
+        .whereIn(this.parentReference, pmfRecordIds)
+        .execute();
+
+      while (iter.hasNext()) {
+        QueryExecutionResult queryResult = iter.next();
+        String pmfRecordId = queryResult.getValue(this.parentReference, ValueType.STRING);
+        String value = queryResult.getValue(displayField, ValueType.STRING);
+        List<String> pmfValues = values.get(pmfRecordId);
+        if (pmfValues == null) {
+          pmfValues = VaultCollections.newList();
+          values.put(pmfRecordId, pmfValues);
+        }
+        if (value != null) {
+          pmfValues.add(value);
+        }
+      }
+
+      Map<String, String> result = VaultCollections.newMap();
+      for (Map.Entry<String, List<String>> entry : values.entrySet()) {
+        if (this.sorted) {
+          entry.getValue().sort(String::compareTo);
+        }
+        String joined = join(entry.getValue());
+        result.put(entry.getKey(), joined == null ? "" : joined);
+      }
+
+      return result;
+    }
+
+    // Return the display values of the added/removed child values, keyed by child value.  For a rollup of a
+    // reference field, the referenced records are read with a single query.
+    private Map<String, String> getDisplayValues() {
+
+      Map<String, String> result = VaultCollections.newMap();
+
+      Set<String> childValues = VaultCollections.newSet();
+      for (String pmfRecordId : this.added.keySet()) {
+        if (!this.rebuildIds.contains(pmfRecordId)) {
+          childValues.addAll(this.added.get(pmfRecordId));
+          childValues.addAll(this.removed.get(pmfRecordId));
+        }
+      }
+
+      if (this.lookupObject == null) {
+        for (String childValue : childValues) {
+          result.put(childValue, childValue);
+        }
+        return result;
+      }
+
+      Iterator<QueryExecutionResult> iter = VqlQuery.select("id", this.lookupField)
+        .from(this.lookupObject)
+        .whereIn("id", childValues)
+        .execute();
+
+      while (iter.hasNext()) {
+        QueryExecutionResult queryResult = iter.next();
+        result.put(queryResult.getValue("id", ValueType.STRING), queryResult.getValue(this.lookupField, ValueType.STRING));
+      }
+
+      return result;
+    }
+
+    // Return the display values of a list of child values, skipping values without a display value
+    private static List<String> toDisplayValues(List<String> childValues, Map<String, String> displayValues) {
+      List<String> result = VaultCollections.newList();
+      for (String childValue : childValues) {
+        String displayValue = displayValues.get(childValue);
+        if (displayValue != null) {
+          result.add(displayValue);
+        }
+      }
+      return result;
+    }
+
+    // Return the values joined with the delimiter and truncated to the maximum length, or null if there are none
+    private String join(List<String> values) {
+      if (values.size() == 0) {
+        return null;
+      }
+      StringBuilder joined = new StringBuilder();
+      for (String value : values) {
+        if (joined.length() > this.maxLength) {
+          break;
+        }
+        if (joined.length() > 0) {
+          joined.append(this.delimiter);
+        }
+        joined.append(value);
+      }
+      return joined.length() > this.maxLength ? joined.substring(0, this.maxLength) : joined.toString();
+    }
+
+    // Split a stored value on the delimiter (literally, not as a regular expression)
+    private List<String> split(String storedValue) {
+      List<String> values = VaultCollections.newList();
+      if (storedValue.length() == 0) {
+        return values;
+      }
+      int start = 0;
+      int end = storedValue.indexOf(this.delimiter);
+      while (end >= 0) {
+        values.add(storedValue.substring(start, end));
+        start = end + this.delimiter.length();
+        end = storedValue.indexOf(this.delimiter, start);
+      }
+      values.add(storedValue.substring(start));
+      return values;
+    }
+
+    // Return the relationship name of a reference field, e.g. "global_code_sku__cr" for "global_code_sku__c"
+    private static String relationshipName(String referenceField) {
+      return referenceField + "r";
+    }
+
+    private void touch(String pmfRecordId) {
+      if (!this.added.containsKey(pmfRecordId)) {
+        this.added.put(pmfRecordId, VaultCollections.newList());
+        this.removed.put(pmfRecordId, VaultCollections.newList());
+      }
+    }
+}
@@ -0,0 +1,31 @@
+package com.veeva.vault.custom.udc;
+/*
+  The changes needed to turn a current collection of values (e.g. record ID's) into a target collection:
+  the values to add (in the target but not the current collection) and the values to remove (in the
+  current but not the target collection).  Values in both collections are in neither list.
+
+  Instances are created by Util.delta().
+*/
+
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+
+import java.util.List;
+
+@UserDefinedClassInfo
+public class SetDelta {
+    public final List<String> toAdd;
+    public final List<String> toRemove;
+
+    public SetDelta(List<String> toAdd, List<String> toRemove) {
+        this.toAdd = toAdd;
+        this.toRemove = toRemove;
+    }
+
+    /**
+     * Return true if there is nothing to add or remove.
+     * @return boolean
+     */
+    public boolean isEmpty() {
+        return this.toAdd.size() == 0 && this.toRemove.size() == 0;
+    }
+}
@@ -0,0 +1,55 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+
+import java.util.Map;
+
+/**
+ * A pool of String values, used when projecting query results into typed rows (e.g. PmfUserRoleSetupRow)
+ * so that a value repeated across many rows (a Business Unit, Brand, Region or Role ID) is held in memory
+ * once, and shared by all of the rows, rather than once per row.
+ *
+ * The pool is scoped to whatever creates it (typically one loader, for the life of the request), since
+ * static state is not available in the SDK.
+ *
+ * Usage:
+ *
+ *    StringPool pool = new StringPool();
+ *    this.brandId = pool.intern(queryResult.getValue("brand__c", ValueType.STRING));
+ */
+
+@UserDefinedClassInfo
+public class StringPool {
+
+    private Map<String, String> values;
+
+    public StringPool() {
+      this.values = VaultCollections.newMap();
+    }
+
+    /**
+     * Return the pooled instance of a value, adding the value to the pool if it is not already there.
+     * @param value - String.  May be null.
+     * @return String - the pooled instance, equal to value, or null if value is null
+     */
+    public String intern(String value) {
+      if (value == null) {
+        return null;
+      }
+      String pooled = this.values.get(value);
+      if (pooled == null) {
+        this.values.put(value, value);
+        pooled = value;
+      }
+      return pooled;
+    }
+
+    /**
+     * Return the number of distinct values in the pool.
+     * @return int
+     */
+    public int size() {
+      return this.values.size();
+    }
+}
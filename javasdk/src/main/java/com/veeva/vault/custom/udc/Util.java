@@ -2,19 +2,19 @@ package com.veeva.vault.custom.udc;
 
 import com.veeva.vault.sdk.api.core.*;
 import com.veeva.vault.sdk.api.data.Record;
+import com.veeva.vault.sdk.api.data.RecordService;
 import com.veeva.vault.sdk.api.document.DocumentService;
 import com.veeva.vault.sdk.api.document.DocumentVersion;
 import com.veeva.vault.sdk.api.notification.NotificationMessage;
 import com.veeva.vault.sdk.api.notification.NotificationParameters;
 import com.veeva.vault.sdk.api.notification.NotificationService;
-import com.veeva.vault.sdk.api.query.QueryExecutionResult;
 import com.veeva.vault.sdk.api.query.QueryResponse;
 import com.veeva.vault.sdk.api.query.QueryResult;
-import com.veeva.vault.sdk.api.query.QueryService;
 import com.veeva.vault.sdk.api.role.DocumentRole;
 import com.veeva.vault.sdk.api.role.DocumentRoleService;
 import com.veeva.vault.sdk.api.role.GetDocumentRolesResponse;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -26,21 +26,28 @@ import java.util.Set;
   jskdDataTypeMap - Return the Vault JSDK Field Type map, keyed by the Vault Field Type (e.g. "String") where
      the values are the JSDK ValueType object.
   vqlContains - Return a String containing a VQL 'contains' filter surrounded by parenthises, e.g.:
-     "('this', 'that', 'the other')".
+     "('this', 'that', 'the other')".  Values are escaped.  For lists of unbounded size, use VqlQuery.
   stringifyList - Return a comma-delimited string built from a List of Strings.
   stringifySet - Return a comma-delimited string built from a KeySet of Strings.
   getFirst - Return the first item in a list of Strings.  Return null if the list is null.
   getRecordID - Return the ID of a record where the identified field contains the identified value.
+     Reference data lookups (getRecordID, getTypeName, getObjectTypeName, getRoleId, getRoleName, getDocTypeGroupId,
+     getUSCountryId) are cached for the duration of the request (see ReferenceDataCache).  Roles, PMF object
+     types, document type groups and countries are read from the persisted ReferenceDataSnapshot first.
   getRecordValue - Return a field value from an Object Record identified by the Record's ID.
   getTypeName - Return the API name of an object record's Object Type.
   getObjectTypeName - Return the Object Type name for the record.  Assumes the values passed as arguments are valid.
   getRoleId - Return the object record ID from the Application Role object for the given role name.
   getRoleName - Return the api name of the Application role for the given Application Role record ID.
+  getDocTypeGroupId - Return the object record ID from the Document Type Group object for the given group name.
   getUSCountryId - Return the record ID from the Country Object record for the United States.
   getSinglePicklistValue - Return the value from a single-pick picklist field, or null if the field value is null.
   stringifyFieldValues - Concatenates a field value across one or more records in a query response.
   parseVaultFieldInfo - return a list of VaultField objects parsed from the input string
   difference - Return a list of Strings from list1/set1 that are not also in list2/set2.
+  intersection - Return a Set of Strings that are in both sets.
+  symmetricDifference - Return a Set of Strings that are in either set, but not in both.
+  delta - Return the values to add to and remove from a collection to make it match another (see SetDelta).
   toList - Convert a collection (e.g. Set) to a List, and return the List.
   getDocumentRoleUsers - return a list of User Ids of users currently in the document's indicated role
   getDocumentOwner - Return the UserID of the indicated document's Owner
@@ -51,11 +58,16 @@ import java.util.Set;
   isVaultOwner - Return a boolean value to indicate whether a user has the Vault Owner Security Profile.
   getCountriesInRegion - Return a list of Country object record ID's for records for the specified region.
   equals - Return a boolean to indicate if 2 strings are equal
+  saveRecords - Save any number of records, RECORD_BATCH_SIZE records per call, throwing a RollbackException on failure.
+  deleteRecords - Delete any number of records, RECORD_BATCH_SIZE records per call, throwing a RollbackException on failure.
  */
 
 @UserDefinedClassInfo
 public class Util {
 
+  // maximum number of records per RecordService batchSaveRecords/batchDeleteRecords call
+  public static final int RECORD_BATCH_SIZE = 500;
+
   /**
    * Return the Vault JSDK Field Type map, keyed by the Vault Field Type (e.g. "String") where
    * the values are the JSDK ValueType object.
@@ -89,7 +101,7 @@ public class Util {
 
     contains.append("(");
     while (iter.hasNext()) {
-      contains.append("'").append(iter.next()).append("'");
+      contains.append(VqlQuery.literal(iter.next()));
       if (iter.hasNext()) {
         contains.append(",");
       }
@@ -159,9 +171,11 @@ public class Util {
    * @return String.  ID of record.
    */
   public static String getRecordID(String objectName, String fieldName, String fieldValue) {
-    QueryService qs = ServiceLocator.locate(QueryService.class);
-    QueryResponse qr = qs.query("select id from "+objectName+" where "+fieldName+" = '"+fieldValue+"'");
-    return qr.streamResults().iterator().next().getValue("id", ValueType.STRING);
+    return ReferenceDataCache.get().lookup(
+      "recordId:" + objectName + "." + fieldName + "=" + fieldValue,
+      "select id from "+objectName+" where "+fieldName+" = '"+fieldValue+"'",
+      "id"
+    );
   }
 
   /**
@@ -174,8 +188,7 @@ public class Util {
    * @return <T> T - Field value to return
    */
     public static <T> T getRecordValue(String objectName, String fieldName, String recordID, ValueType<T> valueType) {
-      QueryService qs = ServiceLocator.locate(QueryService.class);
-      QueryResponse qr = qs.query("select "+fieldName+" from "+objectName+" where id = '"+recordID+"'");
+      QueryResponse qr = QueryUtil.queryLegacy("select "+fieldName+" from "+objectName+" where id = '"+recordID+"'");
       return qr.streamResults().iterator().next().getValue(fieldName, valueType);
     }
 
@@ -185,11 +198,15 @@ public class Util {
    * @return String - api name of the object type
    */
     public static String getTypeName(String objectTypeID) {
-
-      QueryService qs = ServiceLocator.locate(QueryService.class);
-      String query = "select api_name__v from object_type__v where id = '"+objectTypeID+"'";
-      QueryResponse qr = qs.query(query);
-      return qr.streamResults().iterator().next().getValue("api_name__v", ValueType.STRING);
+      String typeName = ReferenceDataSnapshot.get().getObjectTypeName(objectTypeID);
+      if (typeName != null) {
+        return typeName;
+      }
+      return ReferenceDataCache.get().lookup(
+        "typeName:" + objectTypeID,
+        "select api_name__v from object_type__v where id = '"+objectTypeID+"'",
+        "api_name__v"
+      );
     }
 
    /**
@@ -209,17 +226,13 @@ public class Util {
      * @return id
      */
     public static String getObjectTypeName(String objectName, String recordId) {
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
-      QueryResponse queryResponse = queryService.query(
+      return ReferenceDataCache.get().lookup(
+        "objectTypeName:" + objectName + "." + recordId,
         "select object_type__vr.api_name__v" +
         "  from " +objectName +
-        " where id = '"+recordId+"'"
+        " where id = '"+recordId+"'",
+        "object_type__vr.api_name__v"
       );
-      return queryResponse
-              .streamResults()
-              .findFirst()
-              .get()
-              .getValue("object_type__vr.api_name__v", ValueType.STRING);
     }
 
   /**
@@ -227,19 +240,47 @@ public class Util {
    * @return
    */
     public static String getRoleId(String roleName) {
-      QueryService qs = ServiceLocator.locate(QueryService.class);
-      QueryResponse qr = qs.query("select id from application_role__v where api_name__v = '"+roleName+"'");
-      return qr.streamResults().iterator().next().getValue("id", ValueType.STRING);
+      String roleId = ReferenceDataSnapshot.get().getRoleId(roleName);
+      if (roleId != null) {
+        return roleId;
+      }
+      return ReferenceDataCache.get().lookup(
+        "roleId:" + roleName,
+        "select id from application_role__v where api_name__v = '"+roleName+"'",
+        "id"
+      );
+    }
+
+  /**
+   * Return the object record ID from the Document Type Group object for the given group name.
+   * @param docTypeGroupName - name__v of the Document Type Group, e.g. "Artwork"
+   * @return String - record ID
+   */
+    public static String getDocTypeGroupId(String docTypeGroupName) {
+      String docTypeGroupId = ReferenceDataSnapshot.get().getDocTypeGroupId(docTypeGroupName);
+      if (docTypeGroupId != null) {
+        return docTypeGroupId;
+      }
+      return ReferenceDataCache.get().lookup(
+        "docTypeGroupId:" + docTypeGroupName,
+        "select id from doc_type_group__v where name__v = '"+docTypeGroupName+"'",
+        "id"
+      );
     }
 
     /**
      * getRoleName - Return the api name of the Application role for the given Application Role record ID.
      */
     public static String getRoleName(String applicationRoleRecordId) {
-      QueryExecutionResult queryResult = QueryUtil.queryOne(
-        "select api_name__v from application_role__v where id = '"+applicationRoleRecordId+"'"
+      String roleName = ReferenceDataSnapshot.get().getRoleName(applicationRoleRecordId);
+      if (roleName != null) {
+        return roleName;
+      }
+      return ReferenceDataCache.get().lookup(
+        "roleName:" + applicationRoleRecordId,
+        "select api_name__v from application_role__v where id = '"+applicationRoleRecordId+"'",
+        "api_name__v"
       );
-      return queryResult.getValue("api_name__v", ValueType.STRING);
     }
 
   /**
@@ -247,9 +288,15 @@ public class Util {
    * @return String. record ID
    */
     public static String getUSCountryId() {
-      QueryService qs = ServiceLocator.locate(QueryService.class);
-      QueryResponse qr = qs.query("select id from country__v where abbreviation__c = 'US'");
-      return qr.streamResults().iterator().next().getValue("id", ValueType.STRING);
+      String countryId = ReferenceDataSnapshot.get().getCountryIdByAbbreviation("US");
+      if (countryId != null) {
+        return countryId;
+      }
+      return ReferenceDataCache.get().lookup(
+        "usCountryId",
+        "select id from country__v where abbreviation__c = 'US'",
+        "id"
+      );
     }
 
   /**
@@ -341,40 +388,84 @@ public class Util {
      * @return List<String>
      */
     public static List<String> difference(List<String> list1, List<String> list2) {
+      return difference(list1, toSet(list2));
+    }
 
-      List<String> result = VaultCollections.newList();
-      Iterator<String> iter1 = list1.iterator();
-
-      while (iter1.hasNext()) {
-
-        String item1 = iter1.next();
-        Iterator<String> iter2 = list2.iterator();
-        boolean found = false;
+  /**
+   * Return a list of Strings from set1 that are not also in set2.
+   * @param set1 - Set<String>
+   * @param set2 - Set<String>
+   * @return List<String>
+   */
+    public static List<String> difference(Set<String> set1, Set<String> set2) {
+      return difference((Collection<String>) set1, set2);
+    }
 
-        while (iter2.hasNext()) {
-          String item2 = iter2.next();
-          if (item1.equals(item2)) {
-            found = true;
-            break;
-          }
+  // Return the items in the collection that are not in the set, in the order of the collection.
+  // Lookups in the set are hashed, so this is linear in the size of the inputs.
+    private static List<String> difference(Collection<String> collection, Set<String> set) {
+      List<String> result = VaultCollections.newList();
+      for (String item : collection) {
+        if (!set.contains(item)) {
+          result.add(item);
         }
+      }
+      return result;
+    }
 
-        if (!found) {
-          result.add(item1);
+  /**
+   * Return a Set of Strings that are in both set1 and set2.
+   * @param set1 - Set<String>
+   * @param set2 - Set<String>
+   * @return Set<String>
+   */
+    public static Set<String> intersection(Set<String> set1, Set<String> set2) {
+      Set<String> smaller = set1.size() <= set2.size() ? set1 : set2;
+      Set<String> larger = smaller == set1 ? set2 : set1;
+      Set<String> result = VaultCollections.newSet();
+      for (String item : smaller) {
+        if (larger.contains(item)) {
+          result.add(item);
         }
       }
-
       return result;
     }
 
   /**
-   * Return a list of Strings from set1 that are not also in set2.
+   * Return a Set of Strings that are in either set1 or set2, but not in both.
    * @param set1 - Set<String>
    * @param set2 - Set<String>
-   * @return List<String>
+   * @return Set<String>
    */
-    public static List<String> difference(Set<String> set1, Set<String> set2) {
-      return difference(toList(set1), toList(set2));
+    public static Set<String> symmetricDifference(Set<String> set1, Set<String> set2) {
+      Set<String> result = VaultCollections.newSet();
+      result.addAll(difference((Collection<String>) set1, set2));
+      result.addAll(difference((Collection<String>) set2, set1));
+      return result;
+    }
+
+  /**
+   * Return the values to add to, and remove from, a current collection of values to make it match
+   * a target collection of values.
+   * @param current - Collection<String>, e.g. the users currently in a role
+   * @param target - Collection<String>, e.g. the users who should be in the role
+   * @return SetDelta
+   */
+    public static SetDelta delta(Collection<String> current, Collection<String> target) {
+      return new SetDelta(
+        difference(target, toSet(current)),
+        difference(current, toSet(target))
+      );
+    }
+
+  // Return the collection as a Set, copying it only if it is not already a Set
+    private static Set<String> toSet(Collection<String> collection) {
+      if (collection instanceof Set) {
+        return (Set<String>) collection;
+      }
+      Set<String> set = VaultCollections.newSet();
+      set.addAll(collection);
+      return set;
     }
 
   /**
@@ -522,9 +613,8 @@ public class Util {
      */
     public static String getUserFullName(String userId) {
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
 
-      QueryResponse queryResponse = queryService.query(
+      QueryResponse queryResponse = QueryUtil.queryLegacy(
         "select name__v from user__sys where id = " + userId
       );
 
@@ -541,9 +631,8 @@ public class Util {
      */
     public static boolean isVaultOwner(String userId) {
 
-      QueryService queryService = ServiceLocator.locate(QueryService.class);
 
-      QueryResponse queryResponse = queryService.query(
+      QueryResponse queryResponse = QueryUtil.queryLegacy(
         "select security_profile__sysr.profile_key__sys from user__sys where id = '"+userId+"'"
       );
 
@@ -564,15 +653,10 @@ public class Util {
      */
     public static List<String> getCountriesInRegion(String regionId) {
       List<String> countryIds = VaultCollections.newList();
-
-      Iterator<QueryExecutionResult> iter = QueryUtil.query(
-        "select id from country__v where region__c = '"+regionId+"'"
-      ).streamResults().iterator();
-
-      while (iter.hasNext()) {
-        countryIds.add(iter.next().getValue("id", ValueType.STRING));
+      List<String> regionCountries = ReferenceDataSnapshot.get().getCountriesInRegion(regionId);
+      if (regionCountries != null) {
+        countryIds.addAll(regionCountries);
       }
-
       return countryIds;
     }
 
@@ -584,5 +668,58 @@ public class Util {
       );
     }
 
+    /**
+     * Save a list of records of any length, RECORD_BATCH_SIZE records per call to batchSaveRecords.
+     * If a record fails to save, throw a RollbackException with the failure message followed by the
+     * error message (and the record ID, for an existing record).  Memoized queries on the records' object
+     * are discarded (see QueryMemo).
+     * @param records - List<Record>
+     * @param failureMessage - String. e.g. "Failed to save PMF Impacted Country record due to: "
+     */
+    public static void saveRecords(List<Record> records, String failureMessage) {
+      RecordService recordService = ServiceLocator.locate(RecordService.class);
+      for (int start = 0; start < records.size(); start += RECORD_BATCH_SIZE) {
+        List<Record> chunk = records.subList(start, Math.min(start + RECORD_BATCH_SIZE, records.size()));
+        recordService.batchSaveRecords(chunk)
+          .onErrors(errors -> {
+            errors.stream().findFirst().ifPresent(error -> {
+              throw new RollbackException(ErrorType.OPERATION_FAILED,
+                failureMessage + error.getError().getMessage() + recordIdMessage(chunk.get(error.getInputPosition())));
+            });
+          })
+          .execute();
+        QueryMemo.invalidate(chunk.get(0).getObjectName());
+      }
+    }
+
+    /**
+     * Delete a list of records of any length, RECORD_BATCH_SIZE records per call to batchDeleteRecords.
+     * If a record fails to delete, throw a RollbackException with the failure message followed by the
+     * error message and the record ID.  Memoized queries on the records' object are discarded (see QueryMemo).
+     * @param records - List<Record>
+     * @param failureMessage - String. e.g. "Failed to delete PMF Impacted Country record due to: "
+     */
+    public static void deleteRecords(List<Record> records, String failureMessage) {
+      RecordService recordService = ServiceLocator.locate(RecordService.class);
+      for (int start = 0; start < records.size(); start += RECORD_BATCH_SIZE) {
+        List<Record> chunk = records.subList(start, Math.min(start + RECORD_BATCH_SIZE, records.size()));
+        recordService.batchDeleteRecords(chunk)
+          .onErrors(errors -> {
+            errors.stream().findFirst().ifPresent(error -> {
+              throw new RollbackException(ErrorType.OPERATION_FAILED,
+                failureMessage + error.getError().getMessage() + recordIdMessage(chunk.get(error.getInputPosition())));
+            });
+          })
+          .execute();
+        QueryMemo.invalidate(chunk.get(0).getObjectName());
+      }
+    }
+
+    // Return "\nRecord ID: <id>" for an existing record, or an empty string for a new record
+    private static String recordIdMessage(Record record) {
+      String recordId = record.getValue("id", ValueType.STRING);
+      return recordId == null ? "" : "\nRecord ID: " + recordId;
+    }
+
 }
 
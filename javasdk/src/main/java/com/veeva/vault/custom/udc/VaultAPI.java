@@ -10,6 +10,7 @@ import com.veeva.vault.sdk.api.json.JsonValueType;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
 
 /*
  This class contains methods that wrap the Vault API in a convenient way.
@@ -35,6 +36,7 @@ import java.util.List;
    - cancelWorkflowTasks: initiate workflow actions on one or more workflows - cancel tasks
    - executeQuery: execute a Vault API query
    - initiateDocumentUserAction: execute a document lifecycle user action based on the User Action api name
+   - initiateBulkDocumentUserAction: execute a document lifecycle user action on many documents at once
    - initiateDocumentUserActionLabel: execute a document lifecycle user action based on the User Action label
    - initiateDocumentWorklow: start a workflow for one or more documents (not for legacy workflows)
    - replaceWorkflowOwner: replace the owner of a given active workflow with a new user
@@ -45,6 +47,9 @@ public class VaultAPI {
 
   static final String APIVersion = "v21.3";
 
+  // maximum number of documents per "Initiate Bulk Document User Actions" request
+  public static final int BULK_ACTION_MAX_DOCUMENTS = 500;
+
   private String connection;
 
   private boolean succeeded;
@@ -238,6 +243,81 @@ public class VaultAPI {
     }
   }
 
+  /**
+   * initiateBulkDocumentUserAction.  Execute a Document Lifecycle User Action (workflow or state change),
+   *   based on the User Action API name, on the latest versions of any number of documents, with one API
+   *   request per BULK_ACTION_MAX_DOCUMENTS documents.  All of the documents must be in the same lifecycle
+   *   and state.
+   *
+   * Returns the error message for each document on which the action could not be executed, keyed by document
+   * ID.  The action was executed on all documents that are not in the result.  failed() returns true if any
+   * request failed as a whole; in that case all of the request's documents are in the result.
+   *
+   * @param docIds - List<String> - the ID's (not version ID's) of the documents
+   * @param lifecycle - String - API name of the documents' lifecycle, e.g. "general_lifecycle__c"
+   * @param state - String - API name of the documents' current lifecycle state, e.g. "draft__c"
+   * @param actionName - String - API name of the user action
+   * @return Map<String, String> - error messages keyed by document ID
+   */
+  public Map<String, String> initiateBulkDocumentUserAction(
+    List<String> docIds, String lifecycle, String state, String actionName
+  ) {
+
+    Map<String, String> docErrors = VaultCollections.newMap();
+
+    this.succeeded = true;
+
+    String path = "/api/"+APIVersion+"/objects/documents/lifecycle_actions/"+actionName;
+
+    HttpCallout httpCallout = new HttpCallout(this.connection);
+
+    for (int start = 0; start < docIds.size(); start += BULK_ACTION_MAX_DOCUMENTS) {
+
+      List<String> chunk = docIds.subList(start, Math.min(start + BULK_ACTION_MAX_DOCUMENTS, docIds.size()));
+
+      List<HttpParam> params = VaultCollections.newList();
+      params.addAll(this.params);
+      params.add(new HttpParam("docIds", Util.stringifyList(chunk, ",")));
+      params.add(new HttpParam("lifecycle", lifecycle));
+      params.add(new HttpParam("state", state));
+
+      HttpResult httpResult = httpCallout.requestJson(HttpMethod.PUT, path, params, this.logger);
+
+      if (httpResult.isError()) {
+        this.succeeded = false;
+        this.errorType = httpResult.getErrorType();
+        this.errorMessage = httpResult.getErrorMessage();
+        for (String docId : chunk) {
+          docErrors.put(docId, "["+this.errorType+"] "+this.errorMessage);
+        }
+        continue;
+      }
+
+      // one result per document: {"responseStatus": "SUCCESS", "id": 771} or, on failure,
+      // {"responseStatus": "FAILURE", "id": 772, "errors": [{"type": "...", "message": "..."}]}
+      JsonArray results = httpResult.getJsonObject().getValue("data", JsonValueType.ARRAY);
+
+      for (int i = 0; i < results.getSize(); i++) {
+        JsonObject result = results.getValue(i, JsonValueType.OBJECT);
+        String responseStatus = result.getValue("responseStatus", JsonValueType.STRING);
+        if (responseStatus.equals("SUCCESS")) {
+          continue;
+        }
+        String docId = result.getValue("id", JsonValueType.NUMBER).toPlainString();
+        String message = responseStatus;
+        if (result.contains("errors")) {
+          JsonObject error = result.getValue("errors", JsonValueType.ARRAY).getValue(0, JsonValueType.OBJECT);
+          message = "["+error.getValue("type", JsonValueType.STRING)+"] "+error.getValue("message", JsonValueType.STRING);
+        }
+        docErrors.put(docId, message);
+      }
+    }
+
+    this.params.clear();  // set up for the next API
+
+    return docErrors;
+  }
+
   /**
    * executeQuery.  Execute a Vault API query.
    *
@@ -0,0 +1,247 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A builder for VQL queries that escapes literal values, and splits a long 'contains' list across
+ * several queries so that no query exceeds MAX_QUERY_LENGTH.  The results of the queries are
+ * returned as a single Iterator; each query is executed (through QueryUtil) only when the results
+ * of the previous query have been consumed.
+ *
+ * If a query has more than one 'contains' list, only the longest one is split.  If any 'contains'
+ * list is empty, the query can match no records, so no query is executed.
+ *
+ * Usage:
+ *
+ *    Iterator<QueryExecutionResult> iter = VqlQuery.select("country__c")
+ *      .from("global_code_sku_country__c")
+ *      .whereIn("global_code_sku__c", globalCodeRecordIds)
+ *      .where("(mdm_status__c = 'Active' or mdm_status__c = 'Project')")
+ *      .execute();
+ */
+
+@UserDefinedClassInfo
+public class VqlQuery {
+
+    // Vault rejects VQL query strings longer than this
+    public static final int MAX_QUERY_LENGTH = 50000;
+
+    private String fields;
+    private String objectName;
+    private List<String> conditions;
+    private List<String> inFields;
+    private List<List<String>> inValues;
+
+    private VqlQuery(String fields) {
+      this.fields = fields;
+      this.conditions = VaultCollections.newList();
+      this.inFields = VaultCollections.newList();
+      this.inValues = VaultCollections.newList();
+    }
+
+    /**
+     * Start a query selecting the given fields.
+     * @param fields - String... e.g. "id", "name__v"
+     * @return VqlQuery
+     */
+    public static VqlQuery select(String... fields) {
+      return new VqlQuery(String.join(", ", fields));
+    }
+
+    /**
+     * Set the object (or document) to query.
+     * @param objectName - String. e.g. "pmf__c"
+     * @return VqlQuery
+     */
+    public VqlQuery from(String objectName) {
+      this.objectName = objectName;
+      return this;
+    }
+
+    /**
+     * Add a condition, exactly as given.  Conditions are combined with 'and'.
+     * Any literal values in the condition must already be escaped (see escape()).
+     * @param condition - String. e.g. "(mdm_status__c = 'Active' or mdm_status__c = 'Project')"
+     * @return VqlQuery
+     */
+    public VqlQuery where(String condition) {
+      this.conditions.add(condition);
+      return this;
+    }
+
+    /**
+     * Add the condition: field = 'value'
+     * @param field - String
+     * @param value - String
+     * @return VqlQuery
+     */
+    public VqlQuery whereEquals(String field, String value) {
+      return where(field + " = " + literal(value));
+    }
+
+    /**
+     * Add the condition: field != 'value'
+     * @param field - String
+     * @param value - String
+     * @return VqlQuery
+     */
+    public VqlQuery whereNotEquals(String field, String value) {
+      return where(field + " != " + literal(value));
+    }
+
+    /**
+     * Add the condition: field contains ('value1', 'value2', ...)
+     * @param field - String
+     * @param values - Collection<String>
+     * @return VqlQuery
+     */
+    public VqlQuery whereIn(String field, Collection<String> values) {
+      List<String> literals = VaultCollections.newList();
+      for (String value : values) {
+        literals.add(literal(value));
+      }
+      this.inFields.add(field);
+      this.inValues.add(literals);
+      return this;
+    }
+
+    /**
+     * Return the VQL query strings needed to return all results.  The list is empty if the query
+     * can match no records.
+     * @return List<String>
+     */
+    public List<String> getQueries() {
+
+      List<String> queries = VaultCollections.newList();
+
+      // the longest 'contains' list is split; all other conditions are repeated in every query
+      int splitIndex = -1;
+      for (int i = 0; i < this.inValues.size(); i++) {
+        if (this.inValues.get(i).size() == 0) {
+          return queries;
+        }
+        if (splitIndex < 0 || this.inValues.get(i).size() > this.inValues.get(splitIndex).size()) {
+          splitIndex = i;
+        }
+      }
+
+      List<String> fixedConditions = VaultCollections.newList();
+      fixedConditions.addAll(this.conditions);
+      for (int i = 0; i < this.inValues.size(); i++) {
+        if (i != splitIndex) {
+          fixedConditions.add(containsCondition(this.inFields.get(i), this.inValues.get(i)));
+        }
+      }
+
+      if (splitIndex < 0) {
+        queries.add(buildQuery(fixedConditions, null));
+        return queries;
+      }
+
+      String splitField = this.inFields.get(splitIndex);
+      int baseLength = buildQuery(fixedConditions, containsCondition(splitField, VaultCollections.newList())).length();
+
+      List<String> chunk = VaultCollections.newList();
+      int chunkLength = baseLength;
+
+      for (String value : this.inValues.get(splitIndex)) {
+        int valueLength = value.length() + 1; // allow for the comma
+        if (chunk.size() > 0 && chunkLength + valueLength > MAX_QUERY_LENGTH) {
+          queries.add(buildQuery(fixedConditions, containsCondition(splitField, chunk)));
+          chunk = VaultCollections.newList();
+          chunkLength = baseLength;
+        }
+        chunk.add(value);
+        chunkLength += valueLength;
+      }
+      queries.add(buildQuery(fixedConditions, containsCondition(splitField, chunk)));
+
+      return queries;
+    }
+
+    /**
+     * Execute the query, and return an Iterator over the results of all of the queries needed.
+     * @return Iterator<QueryExecutionResult>
+     */
+    public Iterator<QueryExecutionResult> execute() {
+      return new ResultIterator(getQueries());
+    }
+
+    /**
+     * Return a value as a quoted VQL string literal, escaping backslashes and single quotes.
+     * @param value - String
+     * @return String - e.g. 'O\'Brien'
+     */
+    public static String literal(String value) {
+      return "'" + escape(value) + "'";
+    }
+
+    /**
+     * Escape backslashes and single quotes in a value to be used in a VQL string literal.
+     * @param value - String
+     * @return String
+     */
+    public static String escape(String value) {
+      return value.replace("\\", "\\\\").replace("'", "\\'");
+    }
+
+    private String buildQuery(List<String> fixedConditions, String splitCondition) {
+      StringBuilder query = new StringBuilder("select ")
+        .append(this.fields)
+        .append(" from ")
+        .append(this.objectName);
+
+      List<String> allConditions = VaultCollections.newList();
+      allConditions.addAll(fixedConditions);
+      if (splitCondition != null) {
+        allConditions.add(splitCondition);
+      }
+      if (allConditions.size() > 0) {
+        query.append(" where ").append(String.join(" and ", allConditions));
+      }
+
+      return query.toString();
+    }
+
+    private static String containsCondition(String field, List<String> literals) {
+      return field + " contains (" + String.join(",", literals) + ")";
+    }
+
+    // Iterates over the results of a list of queries, executing each query only when it is reached.
+    private static class ResultIterator implements Iterator<QueryExecutionResult> {
+
+      private List<String> queries;
+      private int nextQuery;
+      private Iterator<QueryExecutionResult> current;
+
+      ResultIterator(List<String> queries) {
+        this.queries = queries;
+        this.nextQuery = 0;
+        this.current = null;
+      }
+
+      public boolean hasNext() {
+        while (this.current == null || !this.current.hasNext()) {
+          if (this.nextQuery >= this.queries.size()) {
+            return false;
+          }
+          this.current = QueryUtil.query(this.queries.get(this.nextQuery++)).streamResults().iterator();
+        }
+        return true;
+      }
+
+      public QueryExecutionResult next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return this.current.next();
+      }
+    }
+}